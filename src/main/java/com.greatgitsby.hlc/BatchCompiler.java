@@ -0,0 +1,232 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.*;
+
+/**
+ * BatchCompiler
+ *
+ * Compiles many HansenLite source files concurrently on a work-stealing
+ * pool. Every file gets its own LexicalAnalyzer and Parser, while the
+ * immutable state and parse tables are shared between them. Results are
+ * always reported in the order the files were given, regardless of the
+ * order in which they finished
+ */
+public class BatchCompiler {
+
+    // Private immutable instance variables
+    private final ForkJoinPool _pool;
+    private final CompilationCache _cache;
+
+    // Size limit of the cache used from the command line
+    private static final long DEFAULT_CACHE_BYTES = 64L * 1024 * 1024;
+
+    /**
+     * Constructs a new BatchCompiler running on the common pool
+     */
+    public BatchCompiler() {
+        this(ForkJoinPool.commonPool(), null);
+    }
+
+    /**
+     * Constructs a new BatchCompiler running on the given pool
+     *
+     * @param pool the pool to compile the files on
+     * @param cache the cache of earlier results, or null to always compile
+     */
+    public BatchCompiler(ForkJoinPool pool, CompilationCache cache) {
+        _pool = pool;
+        _cache = cache;
+    }
+
+    /**
+     * Compiles every file named by the given paths. A path naming a
+     * directory stands for every file beneath it, in sorted order
+     *
+     * @param paths the files and directories to compile
+     * @return the result of each file, in the order the files were given
+     * @throws IOException if a directory could not be listed
+     */
+    public List<CompilationResult> compile(Collection<String> paths)
+        throws IOException
+    {
+        // Local variables
+        List<ForkJoinTask<CompilationResult>> tasks;
+        List<CompilationResult> results;
+
+        // Submit every file to the pool
+        tasks = new ArrayList<>();
+
+        for (String file : expand(paths)) {
+            tasks.add(_pool.submit(() ->
+                _cache != null ? _cache.compile(file) : compileFile(file)
+            ));
+        }
+
+        // Collect the results in submission order
+        results = new ArrayList<>(tasks.size());
+
+        for (ForkJoinTask<CompilationResult> task : tasks) {
+            results.add(task.join());
+        }
+
+        return results;
+    }
+
+    /**
+     * Compiles a single file
+     *
+     * @param path the file to compile
+     * @return the result of compiling the file
+     */
+    public static CompilationResult compileFile(String path) {
+
+        // Local variables
+        CompilationResult result;
+
+        // The reader is closed here too, in case the LexicalAnalyzer
+        // fails before it takes ownership of it
+        try (Reader source = new FileReader(new File(path).getAbsoluteFile())) {
+            result = compileSource(path, source);
+        } catch (IOException e) {
+            result = new CompilationResult(path, diagnosticOf(e));
+        }
+
+        return result;
+    }
+
+    /**
+     * Compiles the source of a single file
+     *
+     * @param path the file the source was read from
+     * @param source the program text, closed once it has been compiled
+     * @return the result of compiling the source
+     */
+    public static CompilationResult compileSource(String path, Reader source) {
+
+        // Local variables
+        CompilationResult result;
+
+        // Whatever goes wrong only fails this file, never the rest of
+        // the batch
+        try {
+            parseSource(source);
+            result = new CompilationResult(path, null);
+        } catch (Exception e) {
+            result = new CompilationResult(path, diagnosticOf(e));
+        }
+
+        return result;
+    }
+
+    /**
+     * Parses the source of a single file
+     *
+     * @param source the program text, closed once it has been parsed
+     * @throws SyntaxErrorException if the program is not valid
+     * @throws IOException if the source could not be read
+     */
+    public static void parseSource(Reader source)
+        throws SyntaxErrorException, IOException
+    {
+        try (LexicalAnalyzer lexer = new LexicalAnalyzer(source)) {
+            new Parser(lexer).isValidSyntax();
+        }
+    }
+
+    /**
+     * Compiles every file and directory given on the command line, printing
+     * one line per file. Exits with a non-zero status if any file failed.
+     *
+     * Passing "--cache directory" ahead of the files answers unchanged
+     * files from a CompilationCache kept in that directory
+     *
+     * @param args the files and directories to compile
+     * @throws IOException if a directory could not be listed
+     */
+    public static void main(String[] args) throws IOException {
+
+        // Local variables
+        List<String> paths;
+        CompilationCache cache;
+        boolean hasFailed;
+
+        paths = Arrays.asList(args);
+        cache = null;
+        hasFailed = false;
+
+        // Use a cache if one was asked for
+        if (paths.size() >= 2 && paths.get(0).equals("--cache")) {
+            cache = new CompilationCache(
+                Paths.get(paths.get(1)),
+                "",
+                DEFAULT_CACHE_BYTES
+            );
+            paths = paths.subList(2, paths.size());
+        }
+
+        for (CompilationResult result : new BatchCompiler(
+            ForkJoinPool.commonPool(),
+            cache
+        ).compile(paths)) {
+            System.out.println(result);
+            hasFailed |= !result.isSuccessful();
+        }
+
+        if (hasFailed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * Describes why a file failed to compile. An exception without a
+     * message still has to read as a failure, so it is described by
+     * its type instead
+     *
+     * @param e the exception the file failed with
+     * @return the diagnostic of the file
+     */
+    public static String diagnosticOf(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.toString();
+    }
+
+    /**
+     * Expands the given paths into the list of files to compile
+     *
+     * @param paths the files and directories to expand
+     * @return every file to compile
+     * @throws IOException if a directory could not be listed
+     */
+    private static List<String> expand(Collection<String> paths)
+        throws IOException
+    {
+        // Local variables
+        List<String> files;
+
+        files = new ArrayList<>();
+
+        for (String path : paths) {
+
+            // Directories are walked so that their files are compiled in a
+            // stable order from one run to the next
+            if (Files.isDirectory(Paths.get(path))) {
+                try (Stream<Path> walk = Files.walk(Paths.get(path))) {
+                    walk.filter(Files::isRegularFile)
+                        .map(Path::toString)
+                        .sorted()
+                        .forEach(files::add);
+                }
+            }
+            // Anything else is compiled as is, missing files will be
+            // reported by the LexicalAnalyzer
+            else {
+                files.add(path);
+            }
+        }
+
+        return files;
+    }
+}
@@ -0,0 +1,442 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.net.URISyntaxException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.FileTime;
+import java.security.*;
+import java.util.*;
+import java.util.stream.*;
+
+/**
+ * CompilationCache
+ *
+ * A persistent, content-addressed cache of compilation results. Every
+ * entry is keyed by a hash of the source bytes, the compiler version and
+ * the compiler options, so a file that has not changed since it was last
+ * compiled is answered without lexing or parsing it.
+ *
+ * Entries are written atomically and the cache is kept under a size
+ * limit by evicting the least recently used entries. Every entry is
+ * charged the whole file system blocks it takes up, so a cache of many
+ * small entries is bounded on disk and not just by the bytes it holds
+ */
+public class CompilationCache {
+
+    // Private immutable instance variables
+    private final Path _directory;
+    private final String _options;
+    private final long _maxBytes;
+    private final long _blockBytes;
+
+    // Size of every entry together, only touched while holding the lock
+    // on this cache
+    private long _currentBytes;
+
+    // Identifies the build of the compiler, so that entries written by
+    // any other build are never used
+    public static final String COMPILER_VERSION = compilerVersion();
+
+    // Contents of an entry for a file that compiled without error
+    private static final String OK = "OK";
+
+    // Block size assumed where the file system does not report one
+    private static final long DEFAULT_BLOCK_BYTES = 4096;
+
+    // Eviction frees space down to this share of the size limit, so that
+    // a full cache is not scanned again on every write
+    private static final int LOW_WATER_PERCENT = 90;
+
+    /**
+     * Constructs a new CompilationCache
+     *
+     * @param directory the directory the entries are stored in
+     * @param options the compiler options the results depend on
+     * @param maxBytes the size the cache is kept under
+     * @throws IOException if the directory could not be created or read
+     */
+    public CompilationCache(Path directory, String options, long maxBytes)
+        throws IOException
+    {
+        _directory = Files.createDirectories(directory);
+        _options = options;
+        _maxBytes = maxBytes;
+        _blockBytes = blockBytesOf(_directory);
+        _currentBytes = sizeOf(entries());
+    }
+
+    /**
+     * Compiles a file, answering from the cache when its contents were
+     * compiled before
+     *
+     * @param path the file to compile
+     * @return the result of compiling the file
+     */
+    public CompilationResult compile(String path) {
+
+        // Local variables
+        byte[] source;
+        Path entry;
+        CompilationResult result;
+        boolean isStorable;
+
+        // Read the source, a missing file is reported like the
+        // LexicalAnalyzer would have
+        try {
+            source = Files.readAllBytes(Paths.get(path));
+        } catch (IOException e) {
+            return new CompilationResult(path, BatchCompiler.diagnosticOf(e));
+        }
+
+        entry = _directory.resolve(keyOf(source));
+
+        // Cache hit, mark the entry as recently used and return it
+        try {
+            result = read(path, entry);
+            Files.setLastModifiedTime(
+                entry,
+                FileTime.fromMillis(System.currentTimeMillis())
+            );
+
+            return result;
+        } catch (IOException e) {
+            // Missing or evicted in the meantime, compile it below
+        }
+
+        // Cache miss, compile the bytes that were hashed rather than
+        // reading the file again, it may have changed since. Only a
+        // verdict on the program itself is stored, anything else that
+        // went wrong may not happen next time
+        try {
+            BatchCompiler.parseSource(
+                new InputStreamReader(
+                    new ByteArrayInputStream(source),
+                    Charset.defaultCharset()
+                )
+            );
+            result = new CompilationResult(path, null);
+            isStorable = true;
+        } catch (SyntaxErrorException e) {
+            result = new CompilationResult(path, e.getMessage());
+            isStorable = true;
+        } catch (Exception e) {
+            result = new CompilationResult(
+                path,
+                BatchCompiler.diagnosticOf(e)
+            );
+            isStorable = false;
+        }
+
+        // The cache is only an optimization, failing to store an entry
+        // must not fail the compilation
+        try {
+            if (isStorable) {
+                write(entry, result);
+            }
+        } catch (IOException e) {
+            // Leave the entry out
+        }
+
+        return result;
+    }
+
+    /**
+     * Computes the key of the entry for the given source
+     *
+     * @param source the contents of a file
+     * @return the key of the entry, as a hexadecimal string
+     */
+    private String keyOf(byte[] source) {
+
+        // Local variables
+        MessageDigest digest;
+
+        digest = sha256();
+
+        // Hash the version and options ahead of the source, separated so
+        // that no two combinations produce the same bytes
+        digest.update(COMPILER_VERSION.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(_options.getBytes(StandardCharsets.UTF_8));
+        digest.update((byte) 0);
+        digest.update(source);
+
+        return hex(digest.digest());
+    }
+
+    /**
+     * Computes the version of the compiler from the class files it was
+     * loaded from, so that every build that could compile differently
+     * has a version of its own
+     *
+     * @return the version of the compiler
+     */
+    private static String compilerVersion() {
+
+        // Local variables
+        MessageDigest digest;
+        CodeSource codeSource;
+        Path location;
+        Path classes;
+        List<Path> files;
+
+        digest = sha256();
+
+        try {
+            codeSource = CompilationCache.class
+                .getProtectionDomain()
+                .getCodeSource();
+
+            if (codeSource != null) {
+                location = Paths.get(codeSource.getLocation().toURI());
+
+                // Loaded from a jar, the jar is the build
+                if (!Files.isDirectory(location)) {
+                    digest.update(Files.readAllBytes(location));
+                    return hex(digest.digest());
+                }
+
+                // Loaded from a directory, hash the class files of the
+                // compiler's package in a stable order
+                classes = location.resolve(
+                    CompilationCache.class.getPackageName().replace('.', '/')
+                );
+
+                try (Stream<Path> walk = Files.walk(classes)) {
+                    files = walk
+                        .filter(file -> file.toString().endsWith(".class"))
+                        .sorted()
+                        .collect(Collectors.toList());
+                }
+
+                for (Path file : files) {
+                    digest.update(
+                        classes.relativize(file)
+                            .toString()
+                            .getBytes(StandardCharsets.UTF_8)
+                    );
+                    digest.update((byte) 0);
+                    digest.update(Files.readAllBytes(file));
+                }
+
+                return hex(digest.digest());
+            }
+        } catch (IOException | URISyntaxException | SecurityException e) {
+            // Fall back below
+        }
+
+        // The build cannot be identified, so no entry can be trusted
+        // beyond this run of the compiler
+        return "unversioned-" + ProcessHandle.current().pid() + "-" +
+            System.currentTimeMillis();
+    }
+
+    /**
+     * Returns a new SHA-256 digest
+     *
+     * @return the digest
+     */
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to support SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * Formats bytes as a hexadecimal string
+     *
+     * @param bytes the bytes to format
+     * @return the bytes in hexadecimal
+     */
+    private static String hex(byte[] bytes) {
+
+        // Local variables
+        StringBuilder hex;
+
+        hex = new StringBuilder();
+
+        for (byte b : bytes) {
+            hex.append(String.format("%02x", b));
+        }
+
+        return hex.toString();
+    }
+
+    /**
+     * Reads a cache entry
+     *
+     * @param path the file the entry belongs to
+     * @param entry the entry to read
+     * @return the result stored in the entry
+     * @throws IOException if the entry does not exist
+     */
+    private static CompilationResult read(String path, Path entry)
+        throws IOException
+    {
+        // Local variables
+        String contents;
+
+        contents = Files.readString(entry, StandardCharsets.UTF_8);
+
+        return new CompilationResult(
+            path,
+            contents.equals(OK) ? null : contents
+        );
+    }
+
+    /**
+     * Writes a cache entry, then evicts entries if the cache has
+     * grown past its size limit
+     *
+     * @param entry the entry to write
+     * @param result the result to store in the entry
+     * @throws IOException if the entry could not be written
+     */
+    private void write(Path entry, CompilationResult result)
+        throws IOException
+    {
+        // Local variables
+        Path temporary;
+
+        // Write a temporary file beside the entry and move it into place,
+        // readers either see the whole entry or none of it
+        temporary = Files.createTempFile(_directory, "entry", ".tmp");
+
+        try {
+            Files.writeString(
+                temporary,
+                result.isSuccessful() ? OK : result.getDiagnostic(),
+                StandardCharsets.UTF_8
+            );
+
+            // Another thread may be storing the same entry, so replacing
+            // it and counting the change in size happen under one lock
+            synchronized (this) {
+                _currentBytes -= sizeOf(List.of(entry));
+
+                Files.move(
+                    temporary,
+                    entry,
+                    StandardCopyOption.ATOMIC_MOVE,
+                    StandardCopyOption.REPLACE_EXISTING
+                );
+
+                _currentBytes += sizeOf(List.of(entry));
+
+                if (_currentBytes > _maxBytes) {
+                    evict();
+                }
+            }
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Deletes the least recently used entries until the cache is back
+     * under its low-water mark
+     *
+     * @throws IOException if the directory could not be read
+     */
+    private synchronized void evict() throws IOException {
+
+        // Local variables
+        List<Path> entries;
+        long bytes;
+        long lowWaterBytes;
+
+        lowWaterBytes = _maxBytes / 100 * LOW_WATER_PERCENT;
+
+        // Oldest entries first
+        entries = entries();
+        entries.sort(Comparator.comparing(CompilationCache::lastUsed));
+        bytes = sizeOf(entries);
+
+        for (Path entry : entries) {
+            if (bytes <= lowWaterBytes) {
+                break;
+            }
+
+            bytes -= sizeOf(List.of(entry));
+            Files.deleteIfExists(entry);
+        }
+
+        _currentBytes = bytes;
+    }
+
+    /**
+     * Lists every entry of the cache
+     *
+     * @return every entry of the cache
+     * @throws IOException if the directory could not be read
+     */
+    private List<Path> entries() throws IOException {
+        try (Stream<Path> list = Files.list(_directory)) {
+            return list
+                .filter(entry -> !entry.toString().endsWith(".tmp"))
+                .collect(Collectors.toList());
+        }
+    }
+
+    /**
+     * Sums the space the given entries take up on disk, skipping any
+     * that another thread has already evicted. Every entry takes at
+     * least one whole block, however little it holds
+     *
+     * @param entries the entries to measure
+     * @return the total size of the entries in bytes
+     */
+    private long sizeOf(List<Path> entries) {
+
+        // Local variables
+        long bytes;
+        long blocks;
+
+        bytes = 0;
+
+        for (Path entry : entries) {
+            try {
+                blocks = (Files.size(entry) + _blockBytes - 1) / _blockBytes;
+                bytes += Math.max(blocks, 1) * _blockBytes;
+            } catch (IOException e) {
+                // Already gone
+            }
+        }
+
+        return bytes;
+    }
+
+    /**
+     * Returns the block size of the file system a directory is on
+     *
+     * @param directory the directory
+     * @return the block size in bytes
+     */
+    private static long blockBytesOf(Path directory) {
+        try {
+            return Math.max(Files.getFileStore(directory).getBlockSize(), 1);
+        } catch (IOException | UnsupportedOperationException e) {
+            return DEFAULT_BLOCK_BYTES;
+        }
+    }
+
+    /**
+     * Returns when an entry was last used, entries that have already
+     * been evicted count as the oldest
+     *
+     * @param entry the entry
+     * @return the time the entry was last used
+     */
+    private static FileTime lastUsed(Path entry) {
+        try {
+            return Files.getLastModifiedTime(entry);
+        } catch (IOException e) {
+            return FileTime.fromMillis(0);
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package com.greatgitsby.hlc;
+
+/**
+ * CompilationResult
+ *
+ * Holds the outcome of compiling a single HansenLite source file: the
+ * path that was compiled and, if it failed, the diagnostic explaining why
+ */
+public class CompilationResult {
+
+    // Private immutable instance variables
+    private final String _path;
+    private final String _diagnostic;
+
+    /**
+     * Constructs a new CompilationResult
+     *
+     * @param path the path of the compiled file
+     * @param diagnostic the error message, or null if the file compiled
+     */
+    public CompilationResult(String path, String diagnostic) {
+        _path = path;
+        _diagnostic = diagnostic;
+    }
+
+    /**
+     * Returns the path of the compiled file
+     *
+     * @return the path of the compiled file
+     */
+    public String getPath() {
+        return _path;
+    }
+
+    /**
+     * Returns the diagnostic of a failed compilation
+     *
+     * @return the error message, or null if the file compiled
+     */
+    public String getDiagnostic() {
+        return _diagnostic;
+    }
+
+    /**
+     * Determines if the file compiled without error
+     *
+     * @return true if the file compiled without error
+     */
+    public boolean isSuccessful() {
+        return _diagnostic == null;
+    }
+
+    /**
+     * Creates a string representation of this result, in the form
+     * "path: OK" or "path: diagnostic"
+     *
+     * @return a string representation of the result
+     */
+    @Override
+    public String toString() {
+        return String.format(
+            "%s: %s",
+            _path,
+            isSuccessful() ? "OK" : _diagnostic
+        );
+    }
+}
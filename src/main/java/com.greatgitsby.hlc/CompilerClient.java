@@ -0,0 +1,139 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * CompilerClient
+ *
+ * Thin client of the CompilerDaemon. It sends compile requests over the
+ * daemon's Unix domain socket and never loads the compiler itself
+ */
+public class CompilerClient implements Closeable {
+
+    // Private immutable instance variables
+    private final SocketChannel _channel;
+    private final BufferedReader _reader;
+    private final Writer _writer;
+
+    /**
+     * Connects a new CompilerClient to a running daemon
+     *
+     * @param socketPath the path of the daemon's Unix domain socket
+     * @throws IOException if the daemon could not be reached
+     */
+    public CompilerClient(Path socketPath) throws IOException {
+        _channel = SocketChannel.open(UnixDomainSocketAddress.of(socketPath));
+        _reader = new BufferedReader(
+            Channels.newReader(_channel, StandardCharsets.UTF_8)
+        );
+        _writer = Channels.newWriter(_channel, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Asks the daemon to compile a file
+     *
+     * @param path the file to compile
+     * @return the result of compiling the file
+     * @throws IOException if the daemon could not be reached
+     */
+    public CompilationResult compile(String path) throws IOException {
+
+        // Local variables
+        String response;
+
+        // The daemon has its own working directory, always send it
+        // an absolute path
+        response = request(
+            CompilerDaemon.COMPILE + " " + CompilerDaemon.escape(
+                Paths.get(path).toAbsolutePath().toString()
+            )
+        );
+
+        return new CompilationResult(
+            path,
+            response.equals(CompilerDaemon.OK)
+                ? null
+                : CompilerDaemon.unescape(
+                    response.substring(CompilerDaemon.ERROR.length() + 1)
+                )
+        );
+    }
+
+    /**
+     * Asks the daemon to stop
+     *
+     * @throws IOException if the daemon could not be reached
+     */
+    public void shutdown() throws IOException {
+        request(CompilerDaemon.SHUTDOWN);
+    }
+
+    /**
+     * Closes the connection to the daemon
+     *
+     * @throws IOException if the connection could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        _channel.close();
+    }
+
+    /**
+     * Sends a single request line and waits for its response line
+     *
+     * @param request the request line
+     * @return the response line
+     * @throws IOException if the daemon closed the connection
+     */
+    private String request(String request) throws IOException {
+
+        // Local variables
+        String response;
+
+        _writer.write(request);
+        _writer.write('\n');
+        _writer.flush();
+
+        response = _reader.readLine();
+
+        if (response == null) {
+            throw new EOFException("Compiler daemon closed the connection");
+        }
+
+        return response;
+    }
+
+    /**
+     * Compiles every file given on the command line through the daemon,
+     * printing one line per file. Exits with a non-zero status if any
+     * file failed
+     *
+     * @param args the socket path followed by the files to compile
+     * @throws IOException if the daemon could not be reached
+     */
+    public static void main(String[] args) throws IOException {
+
+        // Local variables
+        CompilationResult result;
+        boolean hasFailed;
+
+        hasFailed = false;
+
+        try (CompilerClient client = new CompilerClient(Paths.get(args[0]))) {
+            for (String path : Arrays.asList(args).subList(1, args.length)) {
+                result = client.compile(path);
+                System.out.println(result);
+                hasFailed |= !result.isSuccessful();
+            }
+        }
+
+        if (hasFailed) {
+            System.exit(1);
+        }
+    }
+}
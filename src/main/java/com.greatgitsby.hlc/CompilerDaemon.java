@@ -0,0 +1,379 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.net.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.*;
+
+/**
+ * CompilerDaemon
+ *
+ * A long-lived compiler process that accepts compile requests over a
+ * Unix domain socket, so that JVM startup, class loading and building the
+ * shared tables are only paid once instead of once per file.
+ *
+ * The protocol is line based, one request per line:
+ *
+ *     COMPILE /absolute/path/to/file.h    replies OK or ERROR diagnostic
+ *     SHUTDOWN                            replies OK and stops the daemon
+ *
+ * Paths and diagnostics may hold line breaks of their own, a string
+ * constant quoted in a diagnostic for one, so both are sent escaped
+ * with escape() and read back with unescape().
+ *
+ * At most a fixed number of connections are served at once. Further
+ * clients wait in the socket backlog until a connection finishes
+ */
+public class CompilerDaemon {
+
+    // Private immutable instance variables
+    private final Path _socketPath;
+    private final Semaphore _permits;
+    private final ExecutorService _workers;
+
+    // Private mutable instance variables
+    private volatile boolean _isRunning;
+    private ServerSocketChannel _server;
+    private Object _socketKey;
+
+    // File type bits of a Unix file mode, and the type of a socket
+    private static final int FILE_TYPE_MASK = 0170000;
+    private static final int SOCKET_TYPE    = 0140000;
+
+    // Protocol keywords
+    public static final String COMPILE  = "COMPILE";
+    public static final String SHUTDOWN = "SHUTDOWN";
+    public static final String OK       = "OK";
+    public static final String ERROR    = "ERROR";
+
+    /**
+     * Constructs a new CompilerDaemon
+     *
+     * @param socketPath the path of the Unix domain socket to listen on
+     * @param maxConnections the number of connections to serve at once
+     */
+    public CompilerDaemon(Path socketPath, int maxConnections) {
+        _socketPath = socketPath;
+        _permits = new Semaphore(maxConnections);
+        _workers = Executors.newFixedThreadPool(maxConnections);
+        _isRunning = false;
+    }
+
+    /**
+     * Binds the socket, clients may connect as soon as this returns
+     * although they are not answered until serve() is called
+     *
+     * @throws FileAlreadyExistsException if the path holds something
+     *                                    other than a socket
+     * @throws BindException if another daemon is listening on the path
+     * @throws IOException if the socket could not be bound
+     */
+    public void bind() throws IOException {
+
+        // A socket left behind by a daemon that died is removed, anything
+        // else at the path belongs to someone else and is left alone
+        if (Files.exists(_socketPath, LinkOption.NOFOLLOW_LINKS)) {
+            if (!isSocket(_socketPath)) {
+                throw new FileAlreadyExistsException(
+                    _socketPath.toString(),
+                    null,
+                    "Not a socket"
+                );
+            }
+
+            if (isListening(_socketPath)) {
+                throw new BindException(
+                    "A compiler daemon is already listening on " + _socketPath
+                );
+            }
+
+            Files.delete(_socketPath);
+        }
+
+        _server = ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+        _server.bind(UnixDomainSocketAddress.of(_socketPath));
+        _socketKey = fileKeyOf(_socketPath);
+        _isRunning = true;
+    }
+
+    /**
+     * Listens for connections until a SHUTDOWN request is received,
+     * binding the socket first if that has not been done yet
+     *
+     * @throws IOException if the socket could not be bound
+     * @throws InterruptedException if interrupted waiting for a connection
+     */
+    public void serve() throws IOException, InterruptedException {
+
+        // Local variables
+        SocketChannel client;
+
+        if (_server == null) {
+            bind();
+        }
+
+        try {
+            while (_isRunning) {
+
+                // Only accept a connection once a worker is free, which
+                // leaves the waiting clients in the socket backlog
+                _permits.acquire();
+
+                try {
+                    client = _server.accept();
+                } catch (ClosedChannelException e) {
+                    _permits.release();
+                    break;
+                }
+
+                dispatch(client);
+            }
+        } finally {
+            _workers.shutdown();
+            _server.close();
+
+            // Only remove the socket this daemon bound, another daemon may
+            // have bound the path since. Without file keys to compare, the
+            // path is taken to still hold this daemon's socket
+            if (
+                _socketKey == null ||
+                _socketKey.equals(fileKeyOf(_socketPath))
+            ) {
+                Files.deleteIfExists(_socketPath);
+            }
+        }
+    }
+
+    /**
+     * Stops the daemon, connections being served are allowed to finish
+     *
+     * @throws IOException if the socket could not be closed
+     */
+    public void shutdown() throws IOException {
+        _isRunning = false;
+
+        if (_server != null) {
+            _server.close();
+        }
+    }
+
+    /**
+     * Determines if a path is a socket. Where the file system does not
+     * report Unix file modes, anything that is not a regular file, a
+     * directory or a link is taken to be one
+     *
+     * @param path the path to check
+     * @return true if the path is a socket
+     * @throws IOException if the path could not be read
+     */
+    private static boolean isSocket(Path path) throws IOException {
+        try {
+            return (
+                (int) Files.getAttribute(
+                    path,
+                    "unix:mode",
+                    LinkOption.NOFOLLOW_LINKS
+                ) & FILE_TYPE_MASK
+            ) == SOCKET_TYPE;
+        } catch (UnsupportedOperationException e) {
+            return Files.readAttributes(
+                path,
+                BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS
+            ).isOther();
+        }
+    }
+
+    /**
+     * Determines if something is listening on a socket
+     *
+     * @param path the socket to check
+     * @return true if a connection to the socket succeeds
+     */
+    private static boolean isListening(Path path) {
+        try (SocketChannel probe = SocketChannel.open(
+            UnixDomainSocketAddress.of(path)
+        )) {
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Returns what identifies the file at a path, so that the socket this
+     * daemon bound can be told apart from one bound at the same path later
+     *
+     * @param path the path of the file
+     * @return the key of the file, or null if there is none
+     */
+    private static Object fileKeyOf(Path path) {
+        try {
+            return Files.readAttributes(
+                path,
+                BasicFileAttributes.class,
+                LinkOption.NOFOLLOW_LINKS
+            ).fileKey();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Hands a connection over to a worker thread
+     *
+     * @param client the connection to serve
+     */
+    private void dispatch(SocketChannel client) {
+        _workers.execute(() -> handle(client));
+    }
+
+    /**
+     * Answers every request of a single connection
+     *
+     * @param client the connection to serve
+     */
+    private void handle(SocketChannel client) {
+
+        // Local variables
+        BufferedReader reader;
+        Writer writer;
+        String request;
+        String response;
+
+        try (client) {
+            reader = new BufferedReader(
+                Channels.newReader(client, StandardCharsets.UTF_8)
+            );
+            writer = Channels.newWriter(client, StandardCharsets.UTF_8);
+
+            while ((request = reader.readLine()) != null) {
+
+                // A request that fails unexpectedly is still answered, so
+                // the client is not left waiting on a closed connection
+                try {
+                    response = respond(request);
+                } catch (RuntimeException e) {
+                    response = ERROR + " " +
+                        escape(BatchCompiler.diagnosticOf(e));
+                }
+
+                writer.write(response);
+                writer.write('\n');
+                writer.flush();
+            }
+        } catch (IOException e) {
+            // The client went away, nothing left to answer
+        } finally {
+            _permits.release();
+        }
+    }
+
+    /**
+     * Produces the response line for a single request line
+     *
+     * @param request the request line
+     * @return the response line
+     * @throws IOException if the daemon could not be shut down
+     */
+    private String respond(String request) throws IOException {
+
+        // Local variables
+        CompilationResult result;
+        String response;
+
+        // Compile the named file
+        if (request.startsWith(COMPILE + " ")) {
+            result = BatchCompiler.compileFile(
+                unescape(request.substring(COMPILE.length() + 1))
+            );
+
+            response = result.isSuccessful()
+                ? OK
+                : ERROR + " " + escape(result.getDiagnostic());
+        }
+        // Stop accepting new connections
+        else if (request.equals(SHUTDOWN)) {
+            shutdown();
+            response = OK;
+        }
+        // Anything else is not part of the protocol
+        else {
+            response = ERROR + " " + escape("Unknown request: " + request);
+        }
+
+        return response;
+    }
+
+    /**
+     * Escapes a value so that it fits on a single protocol line
+     *
+     * @param value the value to escape
+     * @return the value with backslashes and line breaks escaped
+     */
+    public static String escape(String value) {
+        return value
+            .replace("\\", "\\\\")
+            .replace("\n", "\\n")
+            .replace("\r", "\\r");
+    }
+
+    /**
+     * Reverses escape()
+     *
+     * @param value the escaped value
+     * @return the value as it was before it was escaped
+     */
+    public static String unescape(String value) {
+
+        // Local variables
+        StringBuilder unescaped;
+        char next;
+
+        unescaped = new StringBuilder(value.length());
+
+        for (int i = 0; i < value.length(); i++) {
+
+            // Plain characters, and a backslash left dangling at the end,
+            // are kept as they are
+            if (value.charAt(i) != '\\' || i + 1 == value.length()) {
+                unescaped.append(value.charAt(i));
+                continue;
+            }
+
+            next = value.charAt(++i);
+
+            if (next == 'n') {
+                unescaped.append('\n');
+            } else if (next == 'r') {
+                unescaped.append('\r');
+            } else {
+                unescaped.append(next);
+            }
+        }
+
+        return unescaped.toString();
+    }
+
+    /**
+     * Starts a daemon listening on the given socket path
+     *
+     * @param args the socket path and, optionally, the number of
+     *             connections to serve at once
+     * @throws IOException if the socket could not be bound
+     * @throws InterruptedException if interrupted waiting for a connection
+     */
+    public static void main(String[] args)
+        throws IOException, InterruptedException
+    {
+        new CompilerDaemon(
+            Paths.get(args[0]),
+            args.length > 1
+                ? Integer.parseInt(args[1])
+                : Runtime.getRuntime().availableProcessors()
+        ).serve();
+    }
+}
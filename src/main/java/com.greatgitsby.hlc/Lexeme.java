@@ -24,6 +24,15 @@ public class Lexeme implements Symbol {
         _tokenType = tokenType;
     }
 
+    /**
+     * Retrieves the value of this Lexeme as it was read from the file
+     *
+     * @return the value of the lexeme
+     */
+    public String getValue() {
+        return _value;
+    }
+
     /**
      * Retrieves the token type of this Lexeme
      *
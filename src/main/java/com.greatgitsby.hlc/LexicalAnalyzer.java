@@ -12,10 +12,10 @@ import java.util.*;
  * variables from the input file and reserved keywords of the
  * Hansen language
  */
-public class LexicalAnalyzer {
+public class LexicalAnalyzer implements SymbolStream, Closeable {
 
     // Private immutable instance variables
-    private final HashMap<State, HashMap<Character, State>> _stateTable;
+    private final Map<State, Map<Character, State>> _stateTable;
     private final HashMap<String, Symbol> _symbolTable;
     private final PushbackReader _fileReader;
 
@@ -23,6 +23,7 @@ public class LexicalAnalyzer {
     private State _currentState;
     private int _lineNumber;
     private int _charNumber;
+    private int _offset;
     private boolean _hasNextLexeme;
     private int _currentChar;
 
@@ -37,6 +38,13 @@ public class LexicalAnalyzer {
     private static final char NEWLINE           = '\n';
     private static final char TAB               = '\t';
 
+    // Tables shared by every Lexical Analyzer, they cannot be modified
+    // after they have been built so they are safe to read from many threads
+    private static final Map<String, Symbol> RESERVED_WORDS =
+        Collections.unmodifiableMap(buildReservedWords());
+    private static final Map<State, Map<Character, State>> STATE_TABLE =
+        buildStateTable();
+
     /**
      * Constructs a new Lexical Analyzer, parsing an input file
      * into a set of Symbols
@@ -48,25 +56,69 @@ public class LexicalAnalyzer {
      */
     public LexicalAnalyzer(String filepath)
         throws IOException, IllegalArgumentException, SyntaxErrorException
+    {
+        this(new FileReader(new File(filepath).getAbsoluteFile()));
+    }
+
+    /**
+     * Constructs a new Lexical Analyzer, parsing the characters of
+     * a reader into a set of Symbols
+     *
+     * @param reader the source of the program text
+     * @throws IOException if a read error occurs
+     */
+    public LexicalAnalyzer(Reader reader) throws IOException {
+        this(reader, 0, 0, 0);
+    }
+
+    /**
+     * Constructs a new Lexical Analyzer that resumes lexing a program part
+     * way through. The reader must be positioned at the start of a lexeme
+     * and the offset, line number and character number must be those the
+     * Lexical Analyzer would have there had it read the program from the
+     * beginning
+     *
+     * @param reader the source of the rest of the program text
+     * @param offset the offset of the reader in the program text
+     * @param lineNumber the line number at that offset
+     * @param charNumber the character number at that offset
+     * @throws IOException if a read error occurs
+     */
+    public LexicalAnalyzer(
+        Reader reader,
+        int offset,
+        int lineNumber,
+        int charNumber
+    ) throws IOException
     {
         // Initialize internal state
-        _stateTable = new HashMap<>();
+        _stateTable = STATE_TABLE;
         _currentState = State.START;
-        _lineNumber = 0;
-        _charNumber = 0;
+        _offset = offset;
+        _lineNumber = lineNumber;
+        _charNumber = charNumber;
         _hasNextLexeme = true;
 
-        // Create file and file reader
-        _fileReader = new PushbackReader(
-            new FileReader(new File(filepath).getAbsoluteFile())
-        );
+        // Create the pushback reader
+        _fileReader = new PushbackReader(reader);
 
         // Read in the first character from the file reader
         _currentChar = _fileReader.read();
 
-        // Insert all of our reserved keywords as "symbols" in
-        // our symbol table
-        _symbolTable = new HashMap<>() {{
+        // Seed the symbol table with our reserved keywords, identifiers
+        // and literals of this file will be added to it as they are read
+        _symbolTable = new HashMap<>(RESERVED_WORDS);
+    }
+
+    /**
+     * Builds the set of reserved keywords and operators of the HansenLite
+     * language. Every LexicalAnalyzer seeds its symbol table with a copy
+     * of this set
+     *
+     * @return the reserved words of the language
+     */
+    private static HashMap<String, Symbol> buildReservedWords() {
+        return new HashMap<>() {{
             put("variable", TerminalToken.VARIABLE);
             put("print", TerminalToken.PRINT);
             put("if", TerminalToken.IF);
@@ -91,6 +143,22 @@ public class LexicalAnalyzer {
             put("(", TerminalToken.LEFT_PAREN);
             put(")", TerminalToken.RIGHT_PAREN);
         }};
+    }
+
+    /**
+     * Builds the state table of the finite state automata. The table
+     * only depends on the language, so it is built once and shared
+     * by every LexicalAnalyzer and cannot be modified once built
+     *
+     * @return the completed state table
+     */
+    private static Map<State, Map<Character, State>> buildStateTable() {
+
+        // Local variables
+        HashMap<State, Map<Character, State>> stateTable;
+
+        // Initialize the state table
+        stateTable = new HashMap<>();
 
         // START state map
         HashMap<Character, State> startMap = new HashMap<>();
@@ -132,7 +200,7 @@ public class LexicalAnalyzer {
         startMap.put(':', State.COLON);
 
         // Insert START state machine
-        getStateTable().put(State.START, startMap);
+        stateTable.put(State.START, startMap);
 
         // SYMBOL machine states
         symbolMap.put(LETTER, State.SYMBOL);
@@ -140,77 +208,84 @@ public class LexicalAnalyzer {
         symbolMap.put('_', State.SYMBOL);
 
         // Insert SYMBOL state machine
-        getStateTable().put(State.SYMBOL, symbolMap);
+        stateTable.put(State.SYMBOL, symbolMap);
 
         // NUMBER machine states
         numberMap.put(DIGIT, State.NUMBER);
 
         // Insert NUMBER state machine
-        getStateTable().put(State.NUMBER, numberMap);
+        stateTable.put(State.NUMBER, numberMap);
 
         // GREATER_THAN machine states
         greaterThanMap.put('=', State.GREATER_THAN_EQUAL_TO);
 
         // Insert GREATER_THAN state machine into state table
-        getStateTable().put(State.GREATER_THAN, greaterThanMap);
+        stateTable.put(State.GREATER_THAN, greaterThanMap);
 
         // Insert GREATER_THAN_EQUAL_TO state machine (no transitions other
         // than START)
-        getStateTable().put(State.GREATER_THAN_EQUAL_TO, new HashMap<>());
+        stateTable.put(State.GREATER_THAN_EQUAL_TO, new HashMap<>());
 
         // LESS_THAN machine states
         lessThanMap.put('>', State.NOT_EQUAL_TO);
         lessThanMap.put('=', State.LESS_THAN_EQUAL_TO);
 
         // Insert LESS_THAN state machine into state table
-        getStateTable().put(State.LESS_THAN, lessThanMap);
+        stateTable.put(State.LESS_THAN, lessThanMap);
 
         // COLON machine states
         colonMap.put('=', State.ASSIGNMENT_OP);
 
         // Insert COLON state map into the state table
-        getStateTable().put(State.COLON, colonMap);
+        stateTable.put(State.COLON, colonMap);
 
         // Insert LESS_THAN_EQUAL_TO state machine (no transitions other than
         // START)
-        getStateTable().put(State.LESS_THAN_EQUAL_TO, new HashMap<>());
+        stateTable.put(State.LESS_THAN_EQUAL_TO, new HashMap<>());
 
         // Insert NOT_EQUAL_TO state machine (no transitions other than START)
-        getStateTable().put(State.NOT_EQUAL_TO, new HashMap<>());
+        stateTable.put(State.NOT_EQUAL_TO, new HashMap<>());
 
         // Insert ADDITIVE_OP state machine (no transitions other than START)
-        getStateTable().put(State.ADDITIVE_OP, new HashMap<>());
+        stateTable.put(State.ADDITIVE_OP, new HashMap<>());
 
         // Insert MULTIPLICATIVE_OP state machine (no transitions other than
         // START)
-        getStateTable().put(State.MULTIPLICATIVE_OP, new HashMap<>());
+        stateTable.put(State.MULTIPLICATIVE_OP, new HashMap<>());
 
         // Insert WHITESPACE state machine (no transitions other than START)
-        getStateTable().put(State.WHITESPACE, new HashMap<>());
+        stateTable.put(State.WHITESPACE, new HashMap<>());
 
         // Insert LEFT_PAREN state machine (no transitions other than START)
-        getStateTable().put(State.LEFT_PAREN, new HashMap<>());
+        stateTable.put(State.LEFT_PAREN, new HashMap<>());
 
         // Insert RIGHT_PAREN state machine (no transitions other than START)
-        getStateTable().put(State.RIGHT_PAREN, new HashMap<>());
+        stateTable.put(State.RIGHT_PAREN, new HashMap<>());
 
         // Insert STATEMENT_SEP state machine (no transitions other than START)
-        getStateTable().put(State.STATEMENT_SEP, new HashMap<>());
+        stateTable.put(State.STATEMENT_SEP, new HashMap<>());
 
         // Insert STATEMENT_SEP state machine (no transitions other than START)
-        getStateTable().put(State.IN_COMMENT, new HashMap<>());
+        stateTable.put(State.IN_COMMENT, new HashMap<>());
 
         // Insert STATEMENT_SEP state machine (no transitions other than START)
-        getStateTable().put(State.COMMENT, new HashMap<>());
+        stateTable.put(State.COMMENT, new HashMap<>());
 
         // Insert STATEMENT_SEP state machine (no transitions other than START)
-        getStateTable().put(State.IN_STRING, new HashMap<>());
+        stateTable.put(State.IN_STRING, new HashMap<>());
 
         // Insert STATEMENT_SEP state machine (no transitions other than START)
-        getStateTable().put(State.STRING_CONST, new HashMap<>());
+        stateTable.put(State.STRING_CONST, new HashMap<>());
 
         // Insert ASSIGNMENT_OP state machine (no transitions other than START)
-        getStateTable().put(State.ASSIGNMENT_OP, new HashMap<>());
+        stateTable.put(State.ASSIGNMENT_OP, new HashMap<>());
+
+        // Make every state's transitions, and the table itself, read only
+        stateTable.replaceAll(
+            (state, transitions) -> Collections.unmodifiableMap(transitions)
+        );
+
+        return Collections.unmodifiableMap(stateTable);
     }
 
     /**
@@ -219,6 +294,7 @@ public class LexicalAnalyzer {
      * @return the next symbol
      * @throws NoSuchElementException if there are no more lexemes to return
      */
+     @Override
      public Symbol nextSymbol() throws SyntaxErrorException {
          // Local variables
          Symbol theSymbol;
@@ -249,6 +325,27 @@ public class LexicalAnalyzer {
                  normalizedChar = LETTER;
              }
 
+             // The input ended inside a comment or a string constant,
+             // the lexeme can never be finished
+             if (
+                 (_currentChar == EOF || _currentChar == EMPTY_BUF) &&
+                 (
+                     _currentState == State.IN_COMMENT ||
+                     _currentState == State.IN_STRING
+                 )
+             ) {
+                 throw new SyntaxErrorException(
+                     String.format(
+                         "Line %d, Char %d: Unterminated %s",
+                         _lineNumber,
+                         _charNumber,
+                         _currentState == State.IN_COMMENT
+                             ? "comment"
+                             : "string constant"
+                     )
+                 );
+             }
+
              // Handle the IN_COMMENT state, consume all
              // characters until we hit the character that
              // signals the end of a comment
@@ -300,6 +397,7 @@ public class LexicalAnalyzer {
                  // reader
                  try {
                      _fileReader.unread(_currentChar);
+                     _offset--;
                  } catch (IOException e) {
                      throw new SyntaxErrorException(
                          String.format(
@@ -417,6 +515,7 @@ public class LexicalAnalyzer {
              // Read the next character in
              try {
                  _currentChar = _fileReader.read();
+                 _offset++;
              } catch (IOException e) {
                  throw new SyntaxErrorException(
                      String.format(
@@ -431,6 +530,16 @@ public class LexicalAnalyzer {
          return theSymbol;
     }
 
+    /**
+     * Closes the input file of this Lexical Analyzer
+     *
+     * @throws IOException if the file could not be closed
+     */
+    @Override
+    public void close() throws IOException {
+        _fileReader.close();
+    }
+
     /**
      * Get the Lexical Analyzer's symbol table
      *
@@ -445,6 +554,7 @@ public class LexicalAnalyzer {
      *
      * @return true if there is another lexeme to return
      */
+    @Override
     public boolean hasNextSymbol() {
         return _hasNextLexeme;
     }
@@ -454,6 +564,7 @@ public class LexicalAnalyzer {
      *
      * @return the line number the lexical analyzer is currently on
      */
+    @Override
     public int getLineNumber() {
         return _lineNumber;
     }
@@ -463,16 +574,28 @@ public class LexicalAnalyzer {
      *
      * @return the character number the lexical analyzer is currently on
      */
+    @Override
     public int getCharacterNumber() {
         return _charNumber;
     }
 
+    /**
+     * Returns the offset in the program text of the next character the
+     * lexical analyzer will look at. Right after a symbol is returned,
+     * this is where the symbol ended
+     *
+     * @return the offset of the next character
+     */
+    public int getOffset() {
+        return _offset;
+    }
+
     /**
      * Gets the Lexical Analyzer's state table and returns it
      *
      * @return the state table
      */
-    private HashMap<State, HashMap<Character, State>> getStateTable() {
+    private Map<State, Map<Character, State>> getStateTable() {
         return _stateTable;
     }
 }
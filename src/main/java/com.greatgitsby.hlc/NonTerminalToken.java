@@ -91,8 +91,8 @@ public enum NonTerminalToken implements Symbol {
             expected.append(
                 String.format(
                     "Line %d Char %d - Expected ",
-                    theParser.getLexicalAnalyzer().getLineNumber(),
-                    theParser.getLexicalAnalyzer().getCharacterNumber()
+                    theParser.getSymbolStream().getLineNumber(),
+                    theParser.getSymbolStream().getCharacterNumber()
                 )
             );
 
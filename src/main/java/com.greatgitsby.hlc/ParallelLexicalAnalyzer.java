@@ -0,0 +1,580 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * ParallelLexicalAnalyzer
+ *
+ * Lexes a whole program at once by splitting its text into chunks and
+ * running a LexicalAnalyzer over every chunk at the same time on a
+ * fork/join pool.
+ *
+ * A chunk cannot know whether its first character starts a lexeme or
+ * sits inside a comment, a string constant or a longer lexeme, so each
+ * chunk speculates that it starts a lexeme. Chunks are then stitched
+ * together in order: the previous chunk ends on a true lexeme boundary,
+ * and once both are at the start of a lexeme at the same offset, the
+ * LexicalAnalyzer produces the same symbols from there on. A chunk whose
+ * speculation never reaches that boundary, or that fails in some way
+ * before reaching it, is lexed again from it.
+ *
+ * Symbols are served in the same order and with the same line and
+ * character numbers as a LexicalAnalyzer reading the whole file, and a
+ * lexing error is raised at the same point of the stream
+ */
+public class ParallelLexicalAnalyzer implements SymbolStream {
+
+    // Private immutable instance variables
+    private final Run _symbols;
+    private final int _chunkCount;
+    private final int _relexedChunkCount;
+
+    // Private mutable instance variables
+    private int _position;
+    private int _lineNumber;
+    private int _charNumber;
+
+    // Static variables
+    private static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    private static final char NEWLINE           = '\n';
+
+    /**
+     * Constructs a new ParallelLexicalAnalyzer, lexing an input file on
+     * the common pool
+     *
+     * @param filepath the path to the input file
+     * @throws IOException if the file does not exist or a read error occurs
+     */
+    public ParallelLexicalAnalyzer(String filepath) throws IOException {
+
+        // Decoding through a String replaces malformed input just like the
+        // FileReader of a LexicalAnalyzer does, rather than rejecting it
+        this(
+            new String(
+                Files.readAllBytes(
+                    new File(filepath).getAbsoluteFile().toPath()
+                ),
+                Charset.defaultCharset()
+            ).toCharArray(),
+            ForkJoinPool.commonPool(),
+            DEFAULT_CHUNK_SIZE
+        );
+    }
+
+    /**
+     * Constructs a new ParallelLexicalAnalyzer, lexing a program text
+     *
+     * @param text the program text
+     * @param pool the pool to lex the chunks on
+     * @param chunkSize the number of characters in each chunk
+     * @throws IllegalArgumentException if the chunk size is less than one
+     */
+    public ParallelLexicalAnalyzer(
+        char[] text,
+        ForkJoinPool pool,
+        int chunkSize
+    ) {
+        // Local variables
+        int[] starts;
+        int[] lineNumbers;
+        int[] charNumbers;
+        List<ForkJoinTask<Run>> runs;
+        Run merged;
+        Run run;
+        int relexed;
+        int end;
+        int first;
+
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException(
+                "Chunk size must be at least 1, got " + chunkSize
+            );
+        }
+
+        starts = split(text, chunkSize);
+        _chunkCount = starts.length - 1;
+
+        // Find the line and character number at the start of every chunk,
+        // counting each chunk's newlines in parallel
+        lineNumbers = new int[_chunkCount];
+        charNumbers = new int[_chunkCount];
+        positions(text, starts, pool, lineNumbers, charNumbers);
+
+        // Speculatively lex every chunk
+        runs = new ArrayList<>(_chunkCount);
+
+        for (int i = 0; i < _chunkCount; i++) {
+            int chunk = i;
+
+            runs.add(pool.submit(() -> speculate(
+                text,
+                starts[chunk],
+                starts[chunk + 1],
+                lineNumbers[chunk],
+                charNumbers[chunk]
+            )));
+        }
+
+        // Stitch the chunks together, starting each one at the offset
+        // where the previous one really ended
+        merged = new Run(0);
+        relexed = 0;
+        end = 0;
+
+        for (int i = 0; i < _chunkCount && !merged.isFinished(); i++) {
+            run = runs.get(i).join();
+            first = run == null ? -1 : run.indexAfter(end);
+
+            // The speculation failed or never lined up with the true
+            // boundary
+            if (first < 0) {
+                run = lex(
+                    text,
+                    end,
+                    starts[i + 1],
+                    merged.lastLineNumber(),
+                    merged.lastCharNumber()
+                );
+                first = 0;
+                relexed++;
+            }
+
+            merged.append(run, first);
+            end = run._end;
+        }
+
+        _symbols = merged.canonicalize();
+        _relexedChunkCount = relexed;
+        _position = 0;
+        _lineNumber = 0;
+        _charNumber = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Symbol nextSymbol() throws SyntaxErrorException {
+
+        // Local variables
+        Symbol theSymbol;
+
+        // Raise the lexing error where the LexicalAnalyzer would have
+        if (_position == _symbols._size && _symbols._error != null) {
+            throw _symbols._error;
+        }
+
+        if (!hasNextSymbol()) {
+            return TerminalToken.END_OF_INPUT;
+        }
+
+        theSymbol = _symbols._symbols[_position];
+        _lineNumber = _symbols._lineNumbers[_position];
+        _charNumber = _symbols._charNumbers[_position];
+        _position++;
+
+        return theSymbol;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNextSymbol() {
+        return _position < _symbols._size || _symbols._error != null;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLineNumber() {
+        return _lineNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCharacterNumber() {
+        return _charNumber;
+    }
+
+    /**
+     * Returns the number of chunks the program text was split into
+     *
+     * @return the number of chunks
+     */
+    public int getChunkCount() {
+        return _chunkCount;
+    }
+
+    /**
+     * Returns the number of chunks whose speculation was wrong and which
+     * had to be lexed again
+     *
+     * @return the number of chunks lexed again
+     */
+    public int getRelexedChunkCount() {
+        return _relexedChunkCount;
+    }
+
+    /**
+     * Splits a program text into chunks of about the given size. Chunks
+     * start at the beginning of a line where possible, since that is far
+     * more likely to be the start of a lexeme than an arbitrary character
+     *
+     * @param text the program text
+     * @param chunkSize the number of characters in each chunk
+     * @return the offset of each chunk, followed by the length of the text
+     */
+    private static int[] split(char[] text, int chunkSize) {
+
+        // Local variables
+        List<Integer> starts;
+        int start;
+        int limit;
+
+        starts = new ArrayList<>();
+        starts.add(0);
+
+        for (
+            int target = chunkSize;
+            target < text.length;
+            target = Math.max(target + chunkSize, start + 1)
+        ) {
+            start = target;
+            limit = Math.min(target + chunkSize, text.length);
+
+            // Move up to the start of the next line, if there is one
+            // before the following chunk would begin
+            while (start < limit && text[start - 1] != NEWLINE) {
+                start++;
+            }
+
+            if (start == limit) {
+                start = target;
+            }
+
+            if (start < text.length) {
+                starts.add(start);
+            }
+        }
+
+        starts.add(text.length);
+
+        return starts.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Computes the line and character number the LexicalAnalyzer would
+     * have at the start of every chunk
+     *
+     * @param text the program text
+     * @param starts the offset of each chunk
+     * @param pool the pool to count newlines on
+     * @param lineNumbers receives the line number of each chunk
+     * @param charNumbers receives the character number of each chunk
+     */
+    private static void positions(
+        char[] text,
+        int[] starts,
+        ForkJoinPool pool,
+        int[] lineNumbers,
+        int[] charNumbers
+    ) {
+        // Local variables
+        List<ForkJoinTask<int[]>> counts;
+        int[] count;
+        int lines;
+        int lastNewline;
+
+        // Count the newlines of each chunk, and where its last one is
+        counts = new ArrayList<>(lineNumbers.length);
+
+        for (int i = 0; i < lineNumbers.length; i++) {
+            int chunk = i;
+
+            counts.add(pool.submit(() -> {
+                int[] result = {0, -1};
+
+                for (int c = starts[chunk]; c < starts[chunk + 1]; c++) {
+                    if (text[c] == NEWLINE) {
+                        result[0]++;
+                        result[1] = c;
+                    }
+                }
+
+                return result;
+            }));
+        }
+
+        // The line number is the number of newlines before a chunk. The
+        // character number counts from the last of them, the first line
+        // counting from zero and every later line from one
+        lines = 0;
+        lastNewline = -1;
+
+        for (int i = 0; i < lineNumbers.length; i++) {
+            lineNumbers[i] = lines;
+            charNumbers[i] = lastNewline < 0
+                ? starts[i]
+                : starts[i] - lastNewline;
+
+            count = counts.get(i).join();
+            lines += count[0];
+            lastNewline = count[1] < 0 ? lastNewline : count[1];
+        }
+    }
+
+    /**
+     * Lexes a chunk on the guess that it starts at the start of a lexeme.
+     * When the guess is wrong, the chunk may start inside a comment or a
+     * string constant and fail in ways a program lexed from the start
+     * never would, so any failure only means the guess is thrown away
+     *
+     * @param text the program text
+     * @param start the offset of the chunk
+     * @param stop the offset of the next chunk
+     * @param lineNumber the line number at the start of the chunk
+     * @param charNumber the character number at the start of the chunk
+     * @return the symbols that were lexed, or null if lexing failed
+     */
+    private static Run speculate(
+        char[] text,
+        int start,
+        int stop,
+        int lineNumber,
+        int charNumber
+    ) {
+        try {
+            return lex(text, start, stop, lineNumber, charNumber);
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Lexes the program text from an offset until the first symbol that
+     * ends at or past the stop offset, the end of input or an error. The
+     * last chunk always lexes through to the end of input
+     *
+     * @param text the program text
+     * @param start the offset to start lexing at
+     * @param stop the offset to stop lexing at
+     * @param lineNumber the line number at the start offset
+     * @param charNumber the character number at the start offset
+     * @return the symbols that were lexed
+     */
+    private static Run lex(
+        char[] text,
+        int start,
+        int stop,
+        int lineNumber,
+        int charNumber
+    ) {
+        // Local variables
+        LexicalAnalyzer lexer;
+        Run run;
+
+        run = new Run(start);
+
+        try {
+            lexer = new LexicalAnalyzer(
+                new CharArrayReader(text, start, text.length - start),
+                start,
+                lineNumber,
+                charNumber
+            );
+
+            do {
+                run.add(
+                    lexer.nextSymbol(),
+                    lexer.getLineNumber(),
+                    lexer.getCharacterNumber(),
+                    lexer.getOffset()
+                );
+            } while (
+                lexer.hasNextSymbol() &&
+                (lexer.getOffset() < stop || stop == text.length)
+            );
+        } catch (SyntaxErrorException e) {
+            run._error = e;
+        } catch (IOException e) {
+            // Reading from a character array cannot fail
+            throw new UncheckedIOException(e);
+        }
+
+        return run;
+    }
+
+    /**
+     * Run
+     *
+     * The symbols lexed from one offset of the program text, with the
+     * position after each one and where each one ended
+     */
+    private static class Run {
+
+        // Private immutable instance variables
+        private final int _start;
+
+        // Private mutable instance variables
+        private Symbol[] _symbols;
+        private int[] _lineNumbers;
+        private int[] _charNumbers;
+        private int[] _ends;
+        private int _size;
+        private int _end;
+        private SyntaxErrorException _error;
+
+        /**
+         * Constructs a new, empty Run
+         *
+         * @param start the offset the run starts at
+         */
+        private Run(int start) {
+            _start = start;
+            _symbols = new Symbol[16];
+            _lineNumbers = new int[16];
+            _charNumbers = new int[16];
+            _ends = new int[16];
+            _size = 0;
+            _end = start;
+            _error = null;
+        }
+
+        /**
+         * Adds a symbol to the run
+         *
+         * @param theSymbol the symbol
+         * @param lineNumber the line number after the symbol
+         * @param charNumber the character number after the symbol
+         * @param end the offset the symbol ended at
+         */
+        private void add(
+            Symbol theSymbol,
+            int lineNumber,
+            int charNumber,
+            int end
+        ) {
+            if (_size == _symbols.length) {
+                _symbols = Arrays.copyOf(_symbols, _size * 2);
+                _lineNumbers = Arrays.copyOf(_lineNumbers, _size * 2);
+                _charNumbers = Arrays.copyOf(_charNumbers, _size * 2);
+                _ends = Arrays.copyOf(_ends, _size * 2);
+            }
+
+            _symbols[_size] = theSymbol;
+            _lineNumbers[_size] = lineNumber;
+            _charNumbers[_size] = charNumber;
+            _ends[_size] = end;
+            _size++;
+            _end = end;
+        }
+
+        /**
+         * Appends the symbols of another run, along with its error
+         *
+         * @param run the run to append
+         * @param first the index of the first symbol to append
+         */
+        private void append(Run run, int first) {
+            for (int i = first; i < run._size; i++) {
+                add(
+                    run._symbols[i],
+                    run._lineNumbers[i],
+                    run._charNumbers[i],
+                    run._ends[i]
+                );
+            }
+
+            _end = run._end;
+            _error = run._error;
+        }
+
+        /**
+         * Finds the first symbol of this run that starts at the given
+         * offset, which must be the start of a lexeme
+         *
+         * @param offset the offset the symbol must start at
+         * @return the index of the symbol, or -1 if the run never
+         *         started a symbol at that offset
+         */
+        private int indexAfter(int offset) {
+
+            // Local variables
+            int index;
+
+            if (offset == _start) {
+                index = 0;
+            } else {
+                index = Arrays.binarySearch(_ends, 0, _size, offset);
+                index = index < 0 ? -1 : index + 1;
+            }
+
+            return index;
+        }
+
+        /**
+         * Determines if the run reached the end of input or an error,
+         * in which case no more symbols follow it
+         *
+         * @return true if no more symbols follow the run
+         */
+        private boolean isFinished() {
+            return _error != null || (
+                _size > 0 && _symbols[_size - 1] == TerminalToken.END_OF_INPUT
+            );
+        }
+
+        /**
+         * Returns the line number after the last symbol of the run
+         *
+         * @return the line number after the last symbol
+         */
+        private int lastLineNumber() {
+            return _size == 0 ? 0 : _lineNumbers[_size - 1];
+        }
+
+        /**
+         * Returns the character number after the last symbol of the run
+         *
+         * @return the character number after the last symbol
+         */
+        private int lastCharNumber() {
+            return _size == 0 ? 0 : _charNumbers[_size - 1];
+        }
+
+        /**
+         * Makes every lexeme with the same value the same instance, as the
+         * LexicalAnalyzer's symbol table does for a single file
+         *
+         * @return this run
+         */
+        private Run canonicalize() {
+
+            // Local variables
+            Map<String, Lexeme> lexemes;
+
+            lexemes = new HashMap<>();
+
+            for (int i = 0; i < _size; i++) {
+                if (_symbols[i] instanceof Lexeme) {
+                    Lexeme lexeme = (Lexeme) _symbols[i];
+
+                    _symbols[i] = lexemes.computeIfAbsent(
+                        lexeme.getValue(),
+                        value -> lexeme
+                    );
+                }
+            }
+
+            return this;
+        }
+    }
+}
@@ -13,8 +13,13 @@ import java.util.*;
  */
 public class Parser {
 
+    // Parse table shared by every Parser, it cannot be modified after
+    // it has been built so it is safe to read from many threads
+    private static final Map<Symbol, Map<Symbol, List<Symbol>>> PARSE_TABLE =
+        freeze(buildParseTable());
+
     // Parser immutable internal state
-    private final LexicalAnalyzer _lexicalAnalyzer;
+    private final SymbolStream _symbolStream;
     private final Map<Symbol, Map<Symbol, List<Symbol>>> _parseTable;
     private final Stack<Symbol> _labelStack;
     private final Stack<Symbol> _operandStack;
@@ -27,16 +32,19 @@ public class Parser {
 
     /**
      * Construct a new Parser
+     *
+     * @param symbols the stream of symbols to parse, typically
+     *                a LexicalAnalyzer
      */
-    public Parser(LexicalAnalyzer lexer) {
+    public Parser(SymbolStream symbols) {
 
-        // Initialize lexer in Parser
-        _lexicalAnalyzer = lexer;
+        // Initialize symbol stream in Parser
+        _symbolStream = symbols;
         _currentLexerSymbol = null;
         _currentParserSymbol = null;
 
-        // Construct the parse table
-        _parseTable = buildParseTable();
+        // Use the shared parse table
+        _parseTable = PARSE_TABLE;
 
         // Initialize data structures
         _labelStack = new Stack<>();
@@ -60,8 +68,8 @@ public class Parser {
         // STATEMENT non-terminal, onto the parse stack
         getParseStack().push(NonTerminalToken.STATEMENT);
 
-        // Get the first symbol from the lexical analyzer
-        setCurrentLexerSymbol(getLexicalAnalyzer().nextSymbol());
+        // Get the first symbol from the symbol stream
+        setCurrentLexerSymbol(getSymbolStream().nextSymbol());
 
         // Process symbols on the parse stack until the stack is empty
         while (!getParseStack().isEmpty()) {
@@ -96,12 +104,12 @@ public class Parser {
     }
 
     /**
-     * Returns the lexical analyzer of this Parser
+     * Returns the symbol stream of this Parser
      *
-     * @return the lexical analyzer of this Parser
+     * @return the symbol stream of this Parser
      */
-    public LexicalAnalyzer getLexicalAnalyzer() {
-        return _lexicalAnalyzer;
+    public SymbolStream getSymbolStream() {
+        return _symbolStream;
     }
 
     /**
@@ -167,6 +175,31 @@ public class Parser {
         _currentParserSymbol = theNewTopOfStack;
     }
 
+    /**
+     * Makes the parse table read only, down to every production in it.
+     * The entries are wrapped in place so the order they are listed in,
+     * and with it every error message, stays the same
+     *
+     * @param parseTable the parse table to make read only
+     * @return a read only view of the parse table
+     */
+    private static Map<Symbol, Map<Symbol, List<Symbol>>> freeze(
+        Map<Symbol, Map<Symbol, List<Symbol>>> parseTable
+    ) {
+        // Wrap every production, then every row, then the table itself
+        for (Map<Symbol, List<Symbol>> row : parseTable.values()) {
+            row.replaceAll(
+                (symbol, production) -> Collections.unmodifiableList(production)
+            );
+        }
+
+        parseTable.replaceAll(
+            (symbol, row) -> Collections.unmodifiableMap(row)
+        );
+
+        return Collections.unmodifiableMap(parseTable);
+    }
+
     /**
      * Build the parser table as defined by the HansenLite grammar.
      *
@@ -175,7 +208,7 @@ public class Parser {
      *
      * @return the completed parse table
      */
-    private Map<Symbol, Map<Symbol, List<Symbol>>> buildParseTable() {
+    private static Map<Symbol, Map<Symbol, List<Symbol>>> buildParseTable() {
         return new HashMap<>() {{
 
             // statement
@@ -0,0 +1,378 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * PipelinedSymbolStream
+ *
+ * Runs another SymbolStream, typically a LexicalAnalyzer, on a thread of
+ * its own so that lexing overlaps with whatever consumes the symbols.
+ *
+ * The two threads share a single-producer/single-consumer ring buffer.
+ * Each side only ever writes its own counter, so no locks are taken; the
+ * producer publishes symbols in batches and the consumer only re-reads
+ * the producer's counter once it has used up the symbols it last saw.
+ * A side that has to wait spins briefly and then parks until the other
+ * side wakes it, so a stream that is abandoned without being closed
+ * leaves its producer parked rather than busy.
+ * The position of every symbol travels with it, so error messages are
+ * the same as when lexing on the consumer's thread.
+ *
+ * A PipelinedSymbolStream is itself a SymbolStream, so further stages
+ * can be chained behind it in the same way
+ */
+public class PipelinedSymbolStream implements SymbolStream, Closeable {
+
+    // Ring buffer, a slot holding a null symbol marks an error
+    private final Symbol[] _symbols;
+    private final int[] _lineNumbers;
+    private final int[] _charNumbers;
+    private final int _mask;
+
+    // Number of slots published by the producer and released by the
+    // consumer, each counter is written by one thread only
+    private final AtomicLong _published;
+    private final AtomicLong _consumed;
+
+    // Private immutable instance variables
+    private final SymbolStream _source;
+    private final Thread _producer;
+
+    // Producer state, only touched by the producer thread. The error is
+    // read by the consumer, but only after the slot marking it is published
+    private long _writeIndex;
+    private long _knownConsumed;
+    private Throwable _error;
+
+    // Consumer state, only touched by the consumer thread
+    private long _readIndex;
+    private long _knownPublished;
+    private int _lineNumber;
+    private int _charNumber;
+    private boolean _hasNextSymbol;
+
+    // Set when the consumer no longer wants any symbols
+    private volatile boolean _isClosed;
+
+    // Which side, if any, is parked waiting for the other to wake it
+    private volatile Thread _parkedConsumer;
+    private volatile boolean _isProducerParked;
+
+    // Static variables
+    private static final int DEFAULT_CAPACITY = 4096;
+    private static final int BATCH_SIZE       = 256;
+    private static final int SPINS            = 128;
+
+    /**
+     * Constructs a new PipelinedSymbolStream and starts reading from
+     * its source
+     *
+     * @param source the stream to read on a separate thread
+     */
+    public PipelinedSymbolStream(SymbolStream source) {
+        this(source, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Constructs a new PipelinedSymbolStream and starts reading from
+     * its source
+     *
+     * @param source the stream to read on a separate thread
+     * @param capacity the number of symbols buffered ahead of the
+     *                 consumer, rounded up to a power of two
+     */
+    public PipelinedSymbolStream(SymbolStream source, int capacity) {
+
+        // Local variables
+        int slots;
+
+        // A power of two lets an index be wrapped with a mask
+        slots = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+
+        _symbols = new Symbol[slots];
+        _lineNumbers = new int[slots];
+        _charNumbers = new int[slots];
+        _mask = slots - 1;
+        _published = new AtomicLong();
+        _consumed = new AtomicLong();
+        _source = source;
+        _hasNextSymbol = true;
+        _isClosed = false;
+
+        _producer = new Thread(this::produce, "hlc-lexer");
+        _producer.setDaemon(true);
+        _producer.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Symbol nextSymbol() throws SyntaxErrorException {
+
+        // Local variables
+        Symbol theSymbol;
+        int slot;
+
+        if (!_hasNextSymbol) {
+            return TerminalToken.END_OF_INPUT;
+        }
+
+        // Wait for the producer only when every symbol it published
+        // so far has been used up
+        if (_readIndex == _knownPublished) {
+            _knownPublished = awaitPublished();
+        }
+
+        slot = (int) (_readIndex & _mask);
+        theSymbol = _symbols[slot];
+        _lineNumber = _lineNumbers[slot];
+        _charNumber = _charNumbers[slot];
+
+        // The producer hit an error at this point of the stream, raise
+        // it on this thread instead
+        if (theSymbol == null) {
+            _hasNextSymbol = false;
+
+            if (_error instanceof SyntaxErrorException) {
+                throw (SyntaxErrorException) _error;
+            } else if (_error instanceof Error) {
+                throw (Error) _error;
+            } else if (_error instanceof RuntimeException) {
+                throw (RuntimeException) _error;
+            }
+
+            throw new IllegalStateException(_error);
+        }
+
+        _readIndex++;
+        _consumed.lazySet(_readIndex);
+
+        // A producer that was waiting for this slot may need waking. If
+        // it is missed here, it is woken on the next call at the latest
+        if (_isProducerParked) {
+            LockSupport.unpark(_producer);
+        }
+
+        if (theSymbol == TerminalToken.END_OF_INPUT) {
+            _hasNextSymbol = false;
+        }
+
+        return theSymbol;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNextSymbol() {
+        return _hasNextSymbol;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLineNumber() {
+        return _lineNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCharacterNumber() {
+        return _charNumber;
+    }
+
+    /**
+     * Stops reading from the source and waits for the producer thread to
+     * finish. The source itself is left open for its owner to close
+     *
+     * @throws IOException if interrupted waiting for the producer
+     */
+    @Override
+    public void close() throws IOException {
+        _isClosed = true;
+        LockSupport.unpark(_producer);
+
+        try {
+            _producer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted closing the lexer");
+        }
+    }
+
+    /**
+     * Reads the source until it runs out, an error occurs or the
+     * consumer closes this stream. Runs on the producer thread
+     */
+    private void produce() {
+
+        // Local variables
+        Symbol theSymbol;
+        boolean isDone;
+
+        isDone = false;
+
+        while (!isDone && !_isClosed) {
+
+            // Wait for a free slot, publishing what has been written so
+            // far so the consumer cannot be left waiting on it
+            if (_writeIndex - _knownConsumed == _symbols.length) {
+                publish();
+                _knownConsumed = awaitConsumed();
+
+                if (_isClosed) {
+                    break;
+                }
+            }
+
+            // Lex the next symbol, an error is passed along in its place.
+            // That includes errors such as running out of memory, the
+            // consumer would otherwise wait for a symbol forever
+            try {
+                theSymbol = _source.nextSymbol();
+                isDone = !_source.hasNextSymbol();
+            } catch (Throwable e) {
+                _error = e;
+                theSymbol = null;
+                isDone = true;
+            }
+
+            write(theSymbol);
+
+            // Publish a whole batch at once
+            if (isDone || _writeIndex % BATCH_SIZE == 0) {
+                publish();
+            }
+        }
+    }
+
+    /**
+     * Writes a symbol into the next slot. Runs on the producer thread
+     *
+     * @param theSymbol the symbol, or null for an error
+     */
+    private void write(Symbol theSymbol) {
+
+        // Local variables
+        int slot;
+
+        slot = (int) (_writeIndex & _mask);
+        _symbols[slot] = theSymbol;
+        _lineNumbers[slot] = _source.getLineNumber();
+        _charNumbers[slot] = _source.getCharacterNumber();
+        _writeIndex++;
+    }
+
+    /**
+     * Publishes every slot written so far and wakes the consumer if it
+     * is parked waiting for them. Runs on the producer thread
+     */
+    private void publish() {
+
+        // Local variables
+        Thread consumer;
+
+        // A full store, so that a consumer about to park either sees the
+        // new slots or is seen parking here
+        _published.set(_writeIndex);
+        consumer = _parkedConsumer;
+
+        if (consumer != null) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Waits until the producer has published past the read index. Runs
+     * on the consumer thread
+     *
+     * @return the number of slots published
+     */
+    private long awaitPublished() {
+
+        // Local variables
+        long published;
+        int spins;
+
+        // Release every slot with a full store first, so that a producer
+        // parked on a full buffer is sure to be woken before this waits
+        _consumed.set(_readIndex);
+
+        if (_isProducerParked) {
+            LockSupport.unpark(_producer);
+        }
+
+        spins = 0;
+
+        while ((published = _published.get()) == _readIndex) {
+
+            // Spin for a short while, the producer is usually close behind
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+                spins++;
+            }
+            // Then park until the producer publishes
+            else {
+                _parkedConsumer = Thread.currentThread();
+
+                if (_published.get() == _readIndex) {
+                    LockSupport.park(this);
+                }
+
+                _parkedConsumer = null;
+            }
+        }
+
+        return published;
+    }
+
+    /**
+     * Waits until the consumer has released a slot, or has closed the
+     * stream. Runs on the producer thread
+     *
+     * @return the number of slots released
+     */
+    private long awaitConsumed() {
+
+        // Local variables
+        long consumed;
+        int spins;
+
+        spins = 0;
+
+        while (
+            (consumed = _consumed.get()) == _writeIndex - _symbols.length &&
+            !_isClosed
+        ) {
+
+            // Spin for a short while, the consumer is usually close behind
+            if (spins < SPINS) {
+                Thread.onSpinWait();
+                spins++;
+            }
+            // Then park until the consumer releases a slot or closes the
+            // stream. A consumer that abandons the stream leaves this
+            // thread parked for good instead of spinning
+            else {
+                _isProducerParked = true;
+
+                if (
+                    _consumed.get() == _writeIndex - _symbols.length &&
+                    !_isClosed
+                ) {
+                    LockSupport.park(this);
+                }
+
+                _isProducerParked = false;
+            }
+        }
+
+        return consumed;
+    }
+}
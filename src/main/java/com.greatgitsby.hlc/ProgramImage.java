@@ -0,0 +1,471 @@
+package com.greatgitsby.hlc;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * ProgramImage
+ *
+ * A versioned binary image of a parsed program. It holds the stream of
+ * Symbols the LexicalAnalyzer produced, the position of each one, and the
+ * table of lexeme values (identifiers, numbers and string constants).
+ *
+ * An image is only written for a program that parsed successfully, and
+ * reading one back is a SymbolStream served straight out of a memory
+ * mapped file, so later stages start from the pre-parsed program without
+ * lexing the source again.
+ *
+ * Layout, all integers big-endian:
+ *
+ *     header      magic, version, value count, symbol count
+ *     offsets     one int per value, where that value starts
+ *     symbols     one record per symbol: token ordinal (byte),
+ *                 value index or -1 (int), line (int), char (int)
+ *     values      one entry per value: length (int), UTF-8 bytes
+ */
+public class ProgramImage implements SymbolStream {
+
+    // Private immutable instance variables
+    private final ByteBuffer _buffer;
+    private final int _valueCount;
+    private final int _symbolCount;
+    private final Lexeme[] _lexemes;
+
+    // Private mutable instance variables
+    private int _position;
+    private int _lineNumber;
+    private int _charNumber;
+
+    // Version of the layout, bump whenever it changes
+    public static final int VERSION = 1;
+
+    // Static variables
+    private static final int MAGIC = 0x484C4349;
+    private static final int HEADER_BYTES = 4 * Integer.BYTES;
+    private static final int RECORD_BYTES = 1 + 3 * Integer.BYTES;
+    private static final int NO_VALUE = -1;
+    private static final TerminalToken[] TOKENS = TerminalToken.values();
+
+    // Tokens whose symbols are lexemes carrying a value, every other
+    // token is stored without one
+    private static final Set<TerminalToken> VALUED_TOKENS = EnumSet.of(
+        TerminalToken.IDENTIFIER,
+        TerminalToken.NUMBER,
+        TerminalToken.STRING_CONST
+    );
+
+    /**
+     * Constructs a new ProgramImage reading from a buffer
+     *
+     * @param buffer the bytes of the image
+     * @throws IOException if the buffer does not hold a program image of
+     *                     this version
+     */
+    public ProgramImage(ByteBuffer buffer) throws IOException {
+        _buffer = buffer;
+
+        // Check that this is an image we know how to read
+        if (_buffer.limit() < HEADER_BYTES || _buffer.getInt(0) != MAGIC) {
+            throw new IOException("Not a program image");
+        }
+
+        if (_buffer.getInt(Integer.BYTES) != VERSION) {
+            throw new IOException(
+                String.format(
+                    "Unsupported program image version %d, expected %d",
+                    _buffer.getInt(Integer.BYTES),
+                    VERSION
+                )
+            );
+        }
+
+        _valueCount = _buffer.getInt(2 * Integer.BYTES);
+        _symbolCount = _buffer.getInt(3 * Integer.BYTES);
+
+        checkLayout();
+
+        // Lexemes are decoded the first time they are needed and then
+        // shared, just like the LexicalAnalyzer's symbol table does
+        _lexemes = new Lexeme[_valueCount];
+
+        rewind();
+    }
+
+    /**
+     * Opens the program image stored in a file, mapping it into memory
+     *
+     * @param path the file holding the image
+     * @return the program image
+     * @throws IOException if the file could not be read or does not hold
+     *                     a program image of this version
+     */
+    public static ProgramImage open(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(
+            path,
+            StandardOpenOption.READ
+        )) {
+            return new ProgramImage(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            );
+        }
+    }
+
+    /**
+     * Parses a stream of symbols and, if the parse succeeds, writes the
+     * program image of the symbols that were parsed
+     *
+     * @param symbols the stream of symbols to parse
+     * @param path the file to write the image to
+     * @throws SyntaxErrorException if the symbols are not a valid program
+     * @throws IOException if the image could not be written
+     */
+    public static void write(SymbolStream symbols, Path path)
+        throws SyntaxErrorException, IOException
+    {
+        // Local variables
+        Recorder recorder;
+        Map<String, Integer> valueIndexes;
+        List<byte[]> values;
+        ByteBuffer buffer;
+        int valueOffset;
+        Path temporary;
+
+        // Parse the program, remembering every symbol the parser consumed
+        recorder = new Recorder(symbols);
+        new Parser(recorder).isValidSyntax();
+
+        // Number every distinct lexeme value
+        valueIndexes = new HashMap<>();
+        values = new ArrayList<>();
+
+        for (Symbol symbol : recorder._symbols) {
+            if (symbol instanceof Lexeme) {
+                valueIndexes.computeIfAbsent(
+                    ((Lexeme) symbol).getValue(),
+                    value -> {
+                        values.add(value.getBytes(StandardCharsets.UTF_8));
+                        return values.size() - 1;
+                    }
+                );
+            }
+        }
+
+        // Size the image
+        valueOffset = HEADER_BYTES +
+            values.size() * Integer.BYTES +
+            recorder._symbols.size() * RECORD_BYTES;
+
+        buffer = ByteBuffer.allocate(
+            valueOffset + values.stream()
+                .mapToInt(value -> Integer.BYTES + value.length)
+                .sum()
+        );
+
+        // Header
+        buffer.putInt(MAGIC);
+        buffer.putInt(VERSION);
+        buffer.putInt(values.size());
+        buffer.putInt(recorder._symbols.size());
+
+        // Value offsets
+        for (byte[] value : values) {
+            buffer.putInt(valueOffset);
+            valueOffset += Integer.BYTES + value.length;
+        }
+
+        // Symbol records
+        for (int i = 0; i < recorder._symbols.size(); i++) {
+            Symbol symbol = recorder._symbols.get(i);
+
+            if (symbol instanceof Lexeme) {
+                buffer.put((byte) ((Lexeme) symbol).getTokenType().ordinal());
+                buffer.putInt(
+                    valueIndexes.get(((Lexeme) symbol).getValue())
+                );
+            } else {
+                buffer.put((byte) ((TerminalToken) symbol).ordinal());
+                buffer.putInt(NO_VALUE);
+            }
+
+            buffer.putInt(recorder._lineNumbers.get(i));
+            buffer.putInt(recorder._charNumbers.get(i));
+        }
+
+        // Values
+        for (byte[] value : values) {
+            buffer.putInt(value.length);
+            buffer.put(value);
+        }
+
+        // Only a complete image ever appears at the path
+        temporary = Files.createTempFile(
+            path.toAbsolutePath().getParent(),
+            "image",
+            ".tmp"
+        );
+
+        try {
+            Files.write(temporary, buffer.array());
+            Files.move(
+                temporary,
+                path,
+                StandardCopyOption.ATOMIC_MOVE,
+                StandardCopyOption.REPLACE_EXISTING
+            );
+        } finally {
+            Files.deleteIfExists(temporary);
+        }
+    }
+
+    /**
+     * Goes back to the first symbol of the image, so the program can be
+     * handed to another stage
+     */
+    public void rewind() {
+        _position = 0;
+        _lineNumber = 0;
+        _charNumber = 0;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Symbol nextSymbol() {
+
+        // Local variables
+        Symbol theSymbol;
+        int record;
+        int valueIndex;
+
+        if (!hasNextSymbol()) {
+            return TerminalToken.END_OF_INPUT;
+        }
+
+        record = HEADER_BYTES +
+            _valueCount * Integer.BYTES +
+            _position * RECORD_BYTES;
+
+        valueIndex = _buffer.getInt(record + 1);
+
+        // Symbols without a value are the terminal tokens themselves
+        if (valueIndex == NO_VALUE) {
+            theSymbol = TOKENS[_buffer.get(record)];
+        } else {
+            theSymbol = lexemeAt(valueIndex, TOKENS[_buffer.get(record)]);
+        }
+
+        _lineNumber = _buffer.getInt(record + 1 + Integer.BYTES);
+        _charNumber = _buffer.getInt(record + 1 + 2 * Integer.BYTES);
+        _position++;
+
+        return theSymbol;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNextSymbol() {
+        return _position < _symbolCount;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getLineNumber() {
+        return _lineNumber;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int getCharacterNumber() {
+        return _charNumber;
+    }
+
+    /**
+     * Checks that the counts of the header and the table of values fit
+     * the buffer exactly, and that every symbol record names a token and
+     * a value that exist, so that a truncated or corrupt image is turned
+     * away here instead of failing part way through a parse
+     *
+     * @throws IOException if the image is truncated or corrupt
+     */
+    private void checkLayout() throws IOException {
+
+        // Local variables
+        long expectedOffset;
+        int offset;
+        int record;
+        int token;
+        int valueIndex;
+
+        // Counts too large for the buffer would read past its end
+        if (
+            _valueCount < 0 ||
+            _symbolCount < 0 ||
+            (long) HEADER_BYTES +
+                (long) _valueCount * Integer.BYTES +
+                (long) _symbolCount * RECORD_BYTES > _buffer.limit()
+        ) {
+            throw new IOException("Truncated program image");
+        }
+
+        // Values follow the symbols back to back and end the image
+        expectedOffset = HEADER_BYTES +
+            (long) _valueCount * Integer.BYTES +
+            (long) _symbolCount * RECORD_BYTES;
+
+        for (int i = 0; i < _valueCount; i++) {
+            offset = _buffer.getInt(HEADER_BYTES + i * Integer.BYTES);
+
+            if (
+                offset != expectedOffset ||
+                offset > _buffer.limit() - Integer.BYTES ||
+                _buffer.getInt(offset) < 0
+            ) {
+                throw new IOException("Corrupt program image");
+            }
+
+            expectedOffset = (long) offset + Integer.BYTES +
+                _buffer.getInt(offset);
+        }
+
+        if (expectedOffset != _buffer.limit()) {
+            throw new IOException("Truncated program image");
+        }
+
+        // Every record names a token, and a value exactly when its token
+        // carries one
+        for (int i = 0; i < _symbolCount; i++) {
+            record = HEADER_BYTES +
+                _valueCount * Integer.BYTES +
+                i * RECORD_BYTES;
+            token = _buffer.get(record);
+            valueIndex = _buffer.getInt(record + 1);
+
+            if (
+                token < 0 ||
+                token >= TOKENS.length ||
+                (
+                    VALUED_TOKENS.contains(TOKENS[token])
+                        ? valueIndex < 0 || valueIndex >= _valueCount
+                        : valueIndex != NO_VALUE
+                )
+            ) {
+                throw new IOException("Corrupt program image");
+            }
+        }
+    }
+
+    /**
+     * Returns the lexeme for a value of the image, decoding it the
+     * first time it is asked for
+     *
+     * @param valueIndex the index of the value
+     * @param tokenType the token type of the lexeme
+     * @return the lexeme
+     */
+    private Lexeme lexemeAt(int valueIndex, TerminalToken tokenType) {
+
+        // Local variables
+        int offset;
+        byte[] value;
+
+        if (_lexemes[valueIndex] == null) {
+            offset = _buffer.getInt(HEADER_BYTES + valueIndex * Integer.BYTES);
+            value = new byte[_buffer.getInt(offset)];
+
+            _buffer.get(offset + Integer.BYTES, value);
+
+            _lexemes[valueIndex] = new Lexeme(
+                new String(value, StandardCharsets.UTF_8),
+                tokenType
+            );
+        }
+
+        return _lexemes[valueIndex];
+    }
+
+    /**
+     * Recorder
+     *
+     * Passes the symbols of another stream through to the Parser while
+     * remembering each one and where it was read
+     */
+    private static class Recorder implements SymbolStream {
+
+        // Private immutable instance variables
+        private final SymbolStream _source;
+        private final List<Symbol> _symbols;
+        private final List<Integer> _lineNumbers;
+        private final List<Integer> _charNumbers;
+
+        /**
+         * Constructs a new Recorder
+         *
+         * @param source the stream to record
+         */
+        private Recorder(SymbolStream source) {
+            _source = source;
+            _symbols = new ArrayList<>();
+            _lineNumbers = new ArrayList<>();
+            _charNumbers = new ArrayList<>();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Symbol nextSymbol() throws SyntaxErrorException {
+
+            // Local variables
+            Symbol theSymbol;
+            boolean isRecording;
+
+            // Symbols past the end of the source are not recorded, the
+            // image answers END_OF_INPUT on its own once it runs out
+            isRecording = _source.hasNextSymbol();
+            theSymbol = _source.nextSymbol();
+
+            if (isRecording) {
+                _symbols.add(theSymbol);
+                _lineNumbers.add(_source.getLineNumber());
+                _charNumbers.add(_source.getCharacterNumber());
+            }
+
+            return theSymbol;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean hasNextSymbol() {
+            return _source.hasNextSymbol();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getLineNumber() {
+            return _source.getLineNumber();
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int getCharacterNumber() {
+            return _source.getCharacterNumber();
+        }
+    }
+}
@@ -0,0 +1,41 @@
+package com.greatgitsby.hlc;
+
+/**
+ * SymbolStream
+ *
+ * Represents an ordered source of Symbols for the Parser to consume,
+ * along with the position in the program text of the last Symbol given
+ */
+public interface SymbolStream {
+
+    /**
+     * Provides the next symbol of the stream. Once the stream has run
+     * out, every further call returns END_OF_INPUT again
+     *
+     * @return the next symbol
+     * @throws SyntaxErrorException if the next symbol is not part of
+     *                              the language
+     */
+    Symbol nextSymbol() throws SyntaxErrorException;
+
+    /**
+     * Determines if the stream has another symbol to return
+     *
+     * @return true if there is another symbol to return
+     */
+    boolean hasNextSymbol();
+
+    /**
+     * Returns the line number the stream is currently on
+     *
+     * @return the line number the stream is currently on
+     */
+    int getLineNumber();
+
+    /**
+     * Returns the character number the stream is currently on
+     *
+     * @return the character number the stream is currently on
+     */
+    int getCharacterNumber();
+}
@@ -62,7 +62,7 @@ public enum TerminalToken implements Symbol {
 
             // Set the current lexer symbol to the next one in the stream
             theParser.setCurrentLexerSymbol(
-                theParser.getLexicalAnalyzer().nextSymbol()
+                theParser.getSymbolStream().nextSymbol()
             );
         }
         // Hit a case where we received an unexpected terminal
@@ -71,8 +71,8 @@ public enum TerminalToken implements Symbol {
             throw new SyntaxErrorException(
                 String.format(
                     "Line %d Char %d - Expected %s, Got %s",
-                    theParser.getLexicalAnalyzer().getLineNumber(),
-                    theParser.getLexicalAnalyzer().getCharacterNumber(),
+                    theParser.getSymbolStream().getLineNumber(),
+                    theParser.getSymbolStream().getCharacterNumber(),
                     theParser.getCurrentLexerSymbol(),
                     theParser.getTopOfParseStack()
                 )
@@ -1,14 +1,26 @@
 package com.greatgitsby.hlc;
 
 import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
 import org.junit.jupiter.params.ParameterizedTest;
 import org.junit.jupiter.params.provider.Arguments;
 import org.junit.jupiter.params.provider.MethodSource;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.BindException;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.Arrays;
+import java.util.List;
 import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Stream;
 
 /**
@@ -72,6 +84,648 @@ public class CompilerTest {
         Assertions.assertTrue(true);
     }
 
+    /**
+     * Test that a program image of a program parses and replays the same
+     * symbols as lexing the program
+     *
+     * @param filename the file to test
+     * @throws IOException if there was a file error
+     * @throws SyntaxErrorException if the code was syntactically invalid
+     */
+    @ParameterizedTest(name = "Image - Good Program {index}: {0}")
+    @MethodSource("provideGoodProgramParserFilenames")
+    void test_image_GoodPrograms(String filename)
+        throws IOException, SyntaxErrorException
+    {
+        Path image = Files.createTempFile("hlc", ".hli");
+        LexicalAnalyzer lexer;
+        ProgramImage program;
+
+        try (LexicalAnalyzer l = new LexicalAnalyzer(
+            resolveGoodParserFile(filename)
+        )) {
+            ProgramImage.write(l, image);
+        }
+
+        program = ProgramImage.open(image);
+        Assertions.assertTrue(new Parser(program).isValidSyntax());
+
+        program.rewind();
+        lexer = new LexicalAnalyzer(resolveGoodParserFile(filename));
+
+        while (lexer.hasNextSymbol()) {
+            Assertions.assertEquals(
+                lexer.nextSymbol().toString(),
+                program.nextSymbol().toString()
+            );
+        }
+
+        Assertions.assertFalse(program.hasNextSymbol());
+        lexer.close();
+    }
+
+    /**
+     * Test that a truncated program image is refused when it is opened
+     *
+     * @throws IOException if there was a file error
+     * @throws SyntaxErrorException if the code was syntactically invalid
+     */
+    @Test
+    void test_image_TruncatedProgram()
+        throws IOException, SyntaxErrorException
+    {
+        Path image = Files.createTempFile("hlc", ".hli");
+        byte[] bytes;
+
+        try (LexicalAnalyzer lexer = new LexicalAnalyzer(
+            resolveGoodParserFile("mygcd.h")
+        )) {
+            ProgramImage.write(lexer, image);
+        }
+
+        bytes = Files.readAllBytes(image);
+        Files.write(image, Arrays.copyOf(bytes, bytes.length / 2));
+        Assertions.assertThrows(
+            IOException.class,
+            () -> ProgramImage.open(image)
+        );
+
+        Files.write(image, Arrays.copyOf(bytes, bytes.length - 1));
+        Assertions.assertThrows(
+            IOException.class,
+            () -> ProgramImage.open(image)
+        );
+    }
+
+    /**
+     * Test that a program image whose symbol records name a token or a
+     * value that does not exist is refused when it is opened
+     *
+     * @throws IOException if there was a file error
+     * @throws SyntaxErrorException if the code was syntactically invalid
+     */
+    @Test
+    void test_image_CorruptProgram()
+        throws IOException, SyntaxErrorException
+    {
+        Path image = Files.createTempFile("hlc", ".hli");
+        byte[] bytes;
+        int record;
+
+        try (LexicalAnalyzer lexer = new LexicalAnalyzer(
+            resolveGoodParserFile("mygcd.h")
+        )) {
+            ProgramImage.write(lexer, image);
+        }
+
+        // The first record follows the header and the value offsets, its
+        // symbol is the reserved word begin
+        bytes = Files.readAllBytes(image);
+        record = 4 * Integer.BYTES +
+            ByteBuffer.wrap(bytes).getInt(2 * Integer.BYTES) * Integer.BYTES;
+
+        // A token that does not exist
+        Files.write(image, corrupt(bytes, record, 120, -1));
+        Assertions.assertThrows(
+            IOException.class,
+            () -> ProgramImage.open(image)
+        );
+
+        // A value that does not exist
+        Files.write(image, corrupt(bytes, record, bytes[record], 9999));
+        Assertions.assertThrows(
+            IOException.class,
+            () -> ProgramImage.open(image)
+        );
+
+        // An identifier without a value
+        Files.write(
+            image,
+            corrupt(bytes, record, TerminalToken.IDENTIFIER.ordinal(), -1)
+        );
+        Assertions.assertThrows(
+            IOException.class,
+            () -> ProgramImage.open(image)
+        );
+    }
+
+    /**
+     * Test a program file against the Parser, lexing on a separate
+     * thread through a small ring buffer so that it wraps around
+     *
+     * @param filename the file to test
+     * @throws IOException if there was a file error
+     * @throws SyntaxErrorException if the code was syntactically invalid
+     */
+    @ParameterizedTest(name = "Pipelined - Good Program {index}: {0}")
+    @MethodSource("provideGoodProgramParserFilenames")
+    void test_pipelined_GoodPrograms(String filename)
+        throws IOException, SyntaxErrorException
+    {
+        try (
+            LexicalAnalyzer lexer = new LexicalAnalyzer(
+                resolveGoodParserFile(filename)
+            );
+            PipelinedSymbolStream symbols = new PipelinedSymbolStream(lexer, 8)
+        ) {
+            Assertions.assertTrue(new Parser(symbols).isValidSyntax());
+        }
+    }
+
+    /**
+     * Test that a bad program reports the same error when lexed on a
+     * separate thread as when lexed on the parser's thread
+     *
+     * @param filename the file to test
+     */
+    @ParameterizedTest(name = "Pipelined - Bad Program {index}: {0}")
+    @MethodSource("provideBadProgramParserFilenames")
+    void test_pipelined_BadPrograms(String filename) {
+        SyntaxErrorException expected = Assertions.assertThrows(
+            SyntaxErrorException.class,
+            () -> new Parser(
+                new LexicalAnalyzer(resolveBadParserFile(filename))
+            ).isValidSyntax()
+        );
+        SyntaxErrorException actual = Assertions.assertThrows(
+            SyntaxErrorException.class,
+            () -> {
+                try (
+                    LexicalAnalyzer lexer = new LexicalAnalyzer(
+                        resolveBadParserFile(filename)
+                    );
+                    PipelinedSymbolStream symbols =
+                        new PipelinedSymbolStream(lexer, 8)
+                ) {
+                    new Parser(symbols).isValidSyntax();
+                }
+            }
+        );
+
+        Assertions.assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    /**
+     * Test that an Error on the lexing thread, not just an exception, is
+     * raised on the parser's thread instead of leaving it waiting
+     *
+     * @throws IOException if the stream could not be closed
+     */
+    @Test
+    void test_pipelined_ProducerError() throws IOException {
+        SymbolStream failing = new SymbolStream() {
+            private int _count = 0;
+
+            @Override
+            public Symbol nextSymbol() {
+                if (++_count > 20) {
+                    throw new StackOverflowError();
+                }
+                return TerminalToken.BEGIN;
+            }
+
+            @Override
+            public boolean hasNextSymbol() {
+                return true;
+            }
+
+            @Override
+            public int getLineNumber() {
+                return 0;
+            }
+
+            @Override
+            public int getCharacterNumber() {
+                return _count;
+            }
+        };
+
+        try (
+            PipelinedSymbolStream symbols =
+                new PipelinedSymbolStream(failing, 8)
+        ) {
+            Assertions.assertThrows(
+                StackOverflowError.class,
+                () -> {
+                    while (symbols.hasNextSymbol()) {
+                        symbols.nextSymbol();
+                    }
+                }
+            );
+        }
+    }
+
+    /**
+     * Test that a comment or string constant still open at the end of the
+     * input is reported as a syntax error
+     *
+     * @throws IOException if the programs could not be written
+     */
+    @Test
+    void test_lexer_UnterminatedPrograms() throws IOException {
+        Path comment = Files.createTempFile("hlc", ".h");
+        Path string = Files.createTempFile("hlc", ".h");
+
+        Files.writeString(comment, "begin\n{ oops\nend");
+        Files.writeString(string, "begin\nprint \"oops\nend");
+
+        Assertions.assertEquals(
+            "Line 2, Char 4: Unterminated comment",
+            Assertions.assertThrows(
+                SyntaxErrorException.class,
+                () -> new Parser(
+                    new LexicalAnalyzer(comment.toString())
+                ).isValidSyntax()
+            ).getMessage()
+        );
+        Assertions.assertEquals(
+            "Line 2, Char 4: Unterminated string constant",
+            Assertions.assertThrows(
+                SyntaxErrorException.class,
+                () -> new Parser(
+                    new LexicalAnalyzer(string.toString())
+                ).isValidSyntax()
+            ).getMessage()
+        );
+    }
+
+    /**
+     * Test that lexing a program in small speculative chunks produces the
+     * same symbols, at the same positions, as lexing it from start to end
+     *
+     * @param filename the file to test
+     * @throws IOException if there was a file error
+     * @throws SyntaxErrorException if the code was lexically invalid
+     */
+    @ParameterizedTest(name = "Parallel Lexer - Good Program {index}: {0}")
+    @MethodSource("provideGoodProgramParserFilenames")
+    void test_parallelLexer_GoodPrograms(String filename)
+        throws IOException, SyntaxErrorException
+    {
+        LexicalAnalyzer lexer = new LexicalAnalyzer(
+            resolveGoodParserFile(filename)
+        );
+        ParallelLexicalAnalyzer parallelLexer = new ParallelLexicalAnalyzer(
+            Files.readString(Paths.get(resolveGoodParserFile(filename)))
+                .toCharArray(),
+            ForkJoinPool.commonPool(),
+            7
+        );
+
+        while (lexer.hasNextSymbol()) {
+            Assertions.assertEquals(
+                lexer.nextSymbol().toString(),
+                parallelLexer.nextSymbol().toString()
+            );
+            Assertions.assertEquals(
+                lexer.getLineNumber(),
+                parallelLexer.getLineNumber()
+            );
+            Assertions.assertEquals(
+                lexer.getCharacterNumber(),
+                parallelLexer.getCharacterNumber()
+            );
+        }
+
+        Assertions.assertFalse(parallelLexer.hasNextSymbol());
+        Assertions.assertTrue(
+            new Parser(
+                new ParallelLexicalAnalyzer(resolveGoodParserFile(filename))
+            ).isValidSyntax()
+        );
+        lexer.close();
+    }
+
+    /**
+     * Test that the parallel lexer accepts a file with malformed bytes,
+     * as the LexicalAnalyzer does, and refuses chunks of no size
+     *
+     * @throws IOException if the program could not be written
+     * @throws SyntaxErrorException if the code was syntactically invalid
+     */
+    @Test
+    void test_parallelLexer_MalformedInput()
+        throws IOException, SyntaxErrorException
+    {
+        Path program = Files.createTempFile("hlc", ".h");
+
+        Files.write(
+            program,
+            new byte[] {
+                'b', 'e', 'g', 'i', 'n', '\n',
+                '{', ' ', (byte) 0xff, (byte) 0xc3, ' ', '}', '\n',
+                'p', 'r', 'i', 'n', 't', ' ', '1', '\n',
+                'e', 'n', 'd'
+            }
+        );
+
+        Assertions.assertTrue(
+            new Parser(new LexicalAnalyzer(program.toString())).isValidSyntax()
+        );
+        Assertions.assertTrue(
+            new Parser(
+                new ParallelLexicalAnalyzer(program.toString())
+            ).isValidSyntax()
+        );
+        Assertions.assertThrows(
+            IllegalArgumentException.class,
+            () -> new ParallelLexicalAnalyzer(
+                new char[0],
+                ForkJoinPool.commonPool(),
+                0
+            )
+        );
+    }
+
+    /**
+     * Test that parsing a bad program lexed in small speculative chunks
+     * reports the same error as parsing it lexed from start to end
+     *
+     * @param filename the file to test
+     */
+    @ParameterizedTest(name = "Parallel Lexer - Bad Program {index}: {0}")
+    @MethodSource("provideBadProgramParserFilenames")
+    void test_parallelLexer_BadPrograms(String filename) {
+        SyntaxErrorException expected = Assertions.assertThrows(
+            SyntaxErrorException.class,
+            () -> new Parser(
+                new LexicalAnalyzer(resolveBadParserFile(filename))
+            ).isValidSyntax()
+        );
+        SyntaxErrorException actual = Assertions.assertThrows(
+            SyntaxErrorException.class,
+            () -> new Parser(
+                new ParallelLexicalAnalyzer(
+                    Files.readString(Paths.get(resolveBadParserFile(filename)))
+                        .toCharArray(),
+                    ForkJoinPool.commonPool(),
+                    7
+                )
+            ).isValidSyntax()
+        );
+
+        Assertions.assertEquals(expected.getMessage(), actual.getMessage());
+    }
+
+    /**
+     * Test the good program directory against the BatchCompiler
+     *
+     * @throws IOException if the directory could not be listed
+     */
+    @Test
+    void test_batch_GoodPrograms() throws IOException {
+        List<CompilationResult> results = new BatchCompiler().compile(
+            List.of(GOOD_PROGRAMS_PARSER_DIR)
+        );
+
+        Assertions.assertEquals(
+            provideGoodProgramParserFilenames().count(),
+            results.size()
+        );
+
+        for (CompilationResult result : results) {
+            Assertions.assertTrue(result.isSuccessful(), result.toString());
+        }
+    }
+
+    /**
+     * Test the bad program directory against the BatchCompiler, results
+     * must come back in the order the files were listed
+     *
+     * @throws IOException if the directory could not be listed
+     */
+    @Test
+    void test_batch_BadPrograms() throws IOException {
+        List<CompilationResult> results = new BatchCompiler().compile(
+            List.of(BAD_PROGRAMS_PARSER_DIR)
+        );
+        String[] filenames = new File(BAD_PROGRAMS_PARSER_DIR).list();
+
+        Arrays.sort(Objects.requireNonNull(filenames));
+        Assertions.assertEquals(filenames.length, results.size());
+
+        for (int i = 0; i < filenames.length; i++) {
+            Assertions.assertFalse(results.get(i).isSuccessful());
+            Assertions.assertTrue(
+                results.get(i).getPath().endsWith(filenames[i])
+            );
+        }
+    }
+
+    /**
+     * Test that a file the LexicalAnalyzer cannot finish only fails that
+     * file and not the rest of the batch
+     *
+     * @throws IOException if the programs could not be written
+     */
+    @Test
+    void test_batch_UnterminatedProgram() throws IOException {
+        Path directory = Files.createTempDirectory("hlc-batch");
+
+        Files.writeString(
+            directory.resolve("a_unterminated.h"),
+            "begin\nprint \"oops\nend"
+        );
+        Files.copy(
+            Paths.get(resolveGoodParserFile("mygcd.h")),
+            directory.resolve("b_good.h")
+        );
+
+        List<CompilationResult> results = new BatchCompiler().compile(
+            List.of(directory.toString())
+        );
+
+        Assertions.assertEquals(2, results.size());
+        Assertions.assertFalse(results.get(0).isSuccessful());
+        Assertions.assertNotNull(results.get(0).getDiagnostic());
+        Assertions.assertTrue(results.get(1).isSuccessful());
+    }
+
+    /**
+     * Test that the parse table shared by every Parser cannot be modified
+     */
+    @Test
+    void test_parser_ParseTableIsReadOnly() {
+        Parser parser = new Parser(null);
+
+        Assertions.assertThrows(
+            UnsupportedOperationException.class,
+            () -> parser.getParseTable().clear()
+        );
+        Assertions.assertThrows(
+            UnsupportedOperationException.class,
+            () -> parser.getParseTable()
+                .get(NonTerminalToken.STATEMENT)
+                .clear()
+        );
+        Assertions.assertThrows(
+            UnsupportedOperationException.class,
+            () -> parser.getParseTable()
+                .get(NonTerminalToken.STATEMENT)
+                .get(TerminalToken.IF)
+                .clear()
+        );
+    }
+
+    /**
+     * Test a good and a bad program against a running CompilerDaemon
+     *
+     * @throws Exception if the daemon could not be started or reached
+     */
+    @Test
+    void test_daemon_Programs() throws Exception {
+        Path socket = Files.createTempDirectory("hlc").resolve("hlc.sock");
+        CompilerDaemon compilerDaemon = new CompilerDaemon(socket, 2);
+        Thread daemon = new Thread(() -> {
+            try {
+                compilerDaemon.serve();
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        });
+
+        compilerDaemon.bind();
+        daemon.setDaemon(true);
+        daemon.start();
+
+        // A diagnostic quoting a string constant spans several lines
+        Path multiLine = Files.createTempFile("hlc", ".h");
+        Files.writeString(multiLine, "begin\nx \"two\nlines\"\nend");
+
+        try (CompilerClient client = new CompilerClient(socket)) {
+            Assertions.assertEquals(
+                BatchCompiler.compileFile(multiLine.toString()).getDiagnostic(),
+                client.compile(multiLine.toString()).getDiagnostic()
+            );
+            Assertions.assertTrue(
+                client.compile(resolveGoodParserFile("mygcd.h")).isSuccessful()
+            );
+            Assertions.assertFalse(
+                client.compile(resolveBadParserFile("missing_term.h"))
+                    .isSuccessful()
+            );
+            client.shutdown();
+        }
+
+        daemon.join();
+    }
+
+    /**
+     * Test that a CompilerDaemon only takes over a socket left behind by
+     * a daemon that died, and never a file or a daemon that is running
+     *
+     * @throws Exception if a socket could not be set up
+     */
+    @Test
+    void test_daemon_SocketPath() throws Exception {
+        Path directory = Files.createTempDirectory("hlc");
+        Path file = Files.createFile(directory.resolve("file"));
+        Path socket = directory.resolve("hlc.sock");
+
+        // An ordinary file is left alone
+        Assertions.assertThrows(
+            FileAlreadyExistsException.class,
+            () -> new CompilerDaemon(file, 1).bind()
+        );
+        Assertions.assertTrue(Files.exists(file));
+
+        // A socket nobody listens on any more is taken over
+        try (ServerSocketChannel stale = ServerSocketChannel.open(
+            StandardProtocolFamily.UNIX
+        )) {
+            stale.bind(UnixDomainSocketAddress.of(socket));
+        }
+
+        CompilerDaemon first = new CompilerDaemon(socket, 1);
+        first.bind();
+
+        // A running daemon is not
+        Assertions.assertThrows(
+            BindException.class,
+            () -> new CompilerDaemon(socket, 1).bind()
+        );
+        Assertions.assertTrue(Files.exists(socket));
+        first.shutdown();
+    }
+
+    /**
+     * Test that the CompilationCache answers a second compile of the
+     * same programs with the same results
+     *
+     * @throws IOException if the cache directory could not be used
+     */
+    @Test
+    void test_cache_Programs() throws IOException {
+        Path directory = Files.createTempDirectory("hlc-cache");
+        CompilationCache cache = new CompilationCache(directory, "", 1 << 20);
+        String good = resolveGoodParserFile("pascal_triangle.h");
+        String bad = resolveBadParserFile("missing_int.h");
+        CompilationResult first = cache.compile(bad);
+
+        Assertions.assertTrue(cache.compile(good).isSuccessful());
+        Assertions.assertTrue(cache.compile(good).isSuccessful());
+        Assertions.assertEquals(
+            first.getDiagnostic(),
+            cache.compile(bad).getDiagnostic()
+        );
+
+        try (Stream<Path> entries = Files.list(directory)) {
+            Assertions.assertEquals(2, entries.count());
+        }
+    }
+
+    /**
+     * Test that the CompilationCache counts every entry as at least a
+     * whole block, so that many tiny entries still fill it up
+     *
+     * @throws IOException if the cache directory could not be used
+     */
+    @Test
+    void test_cache_BlockLimit() throws IOException {
+        Path directory = Files.createTempDirectory("hlc-cache");
+        long blockBytes = Files.getFileStore(directory).getBlockSize();
+        CompilationCache cache = new CompilationCache(
+            directory,
+            "",
+            4 * blockBytes
+        );
+        String[] filenames = new File(GOOD_PROGRAMS_PARSER_DIR).list();
+
+        for (String filename : Objects.requireNonNull(filenames)) {
+            Assertions.assertTrue(
+                cache.compile(resolveGoodParserFile(filename)).isSuccessful()
+            );
+        }
+
+        try (Stream<Path> entries = Files.list(directory)) {
+            Assertions.assertTrue(entries.count() <= 4);
+        }
+    }
+
+    /**
+     * Returns a copy of a program image with one symbol record replaced
+     *
+     * @param bytes the program image
+     * @param record the offset of the record
+     * @param token the token byte to write
+     * @param valueIndex the value index to write
+     * @return the changed copy of the image
+     */
+    private static byte[] corrupt(
+        byte[] bytes,
+        int record,
+        int token,
+        int valueIndex
+    ) {
+        byte[] copy = bytes.clone();
+
+        ByteBuffer.wrap(copy)
+            .put(record, (byte) token)
+            .putInt(record + 1, valueIndex);
+
+        return copy;
+    }
+
     private static Stream<Arguments> getFilenamesAsArgsIn(String directory) {
         String[] programs;
         File programDirectory = new File(directory);
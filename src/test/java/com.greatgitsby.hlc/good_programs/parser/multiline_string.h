@@ -0,0 +1,10 @@
+begin
+    variable x;
+
+    x := 2;
+    print x;
+
+    print "a string constant
+spanning several
+lines"
+end
@@ -0,0 +1,9 @@
+begin
+    variable x;
+
+    { a comment that
+      says "hi }
+    x := 1;
+
+    print x
+end